@@ -0,0 +1,87 @@
+#!/usr/bin/env python3
+"""Export all-MiniLM-L6-v2 with mean pooling and L2 normalization fused into the ONNX graph.
+
+The bundled model returns last_hidden_state, a [batch_size, sequence_length, 384] tensor, and the Java
+encoder pools and normalizes it. This script appends the attention-mask-aware mean pooling and the
+L2 normalization to the graph and exposes a single [batch_size, 384] output named sentence_embedding,
+which OnnxBertEncoder detects and uses as is (ModelVariant.POOLED). The reduction then runs inside
+ONNX Runtime's kernels and only 384 floats per text are copied back to Java.
+
+By default the model is written to the minilm-lite cache directory (~/.cache/minilm-lite, or
+$MINILM_CACHE_DIR), where MiniLMEmbedder.getModel(ModelVariant.POOLED) looks for it. The same script
+can be applied to the INT8 model produced by quantize_model.py.
+
+Requirements: pip install onnx
+
+Usage:
+    python scripts/export_pooled_model.py [--input MODEL] [--output MODEL]
+"""
+
+import argparse
+import os
+from pathlib import Path
+
+import numpy as np
+import onnx
+from onnx import TensorProto, helper, numpy_helper
+
+MODEL_NAME = "all-minilm-l6-v2.onnx"
+POOLED_MODEL_NAME = "all-minilm-l6-v2-pooled.onnx"
+HIDDEN_STATE = "last_hidden_state"
+ATTENTION_MASK = "attention_mask"
+OUTPUT = "sentence_embedding"
+
+
+def default_output() -> Path:
+    cache_dir = os.environ.get("MINILM_CACHE_DIR")
+    base = Path(cache_dir) if cache_dir else Path.home() / ".cache" / "minilm-lite"
+    return base / POOLED_MODEL_NAME
+
+
+def add_pooling(model: onnx.ModelProto) -> onnx.ModelProto:
+    graph = model.graph
+    opset = next(o.version for o in model.opset_import if o.domain in ("", "ai.onnx"))
+    hidden_size = graph.output[0].type.tensor_type.shape.dim[-1].dim_value
+
+    def axes_node(op, inputs, output, axes, **attributes):
+        # Since opset 13 the reduction/unsqueeze axes are an input instead of an attribute.
+        if opset >= 13:
+            name = output + "_axes"
+            graph.initializer.append(numpy_helper.from_array(np.array(axes, dtype=np.int64), name))
+            return helper.make_node(op, inputs + [name], [output], **attributes)
+        return helper.make_node(op, inputs, [output], axes=axes, **attributes)
+
+    graph.initializer.append(numpy_helper.from_array(np.array(1e-9, dtype=np.float32), "pooling_epsilon"))
+    graph.node.extend([
+        helper.make_node("Cast", [ATTENTION_MASK], ["pooling_mask"], to=TensorProto.FLOAT),
+        axes_node("Unsqueeze", ["pooling_mask"], "pooling_mask_expanded", [-1]),
+        helper.make_node("Mul", [HIDDEN_STATE, "pooling_mask_expanded"], ["pooling_masked_hidden"]),
+        axes_node("ReduceSum", ["pooling_masked_hidden"], "pooling_sum", [1], keepdims=0),
+        axes_node("ReduceSum", ["pooling_mask_expanded"], "pooling_count", [1], keepdims=0),
+        helper.make_node("Max", ["pooling_count", "pooling_epsilon"], ["pooling_count_clamped"]),
+        helper.make_node("Div", ["pooling_sum", "pooling_count_clamped"], ["pooling_mean"]),
+        helper.make_node("LpNormalization", ["pooling_mean"], [OUTPUT], axis=1, p=2),
+    ])
+
+    del graph.output[:]
+    graph.output.append(helper.make_tensor_value_info(OUTPUT, TensorProto.FLOAT, ["batch_size", hidden_size]))
+    onnx.checker.check_model(model)
+    return model
+
+
+def main() -> None:
+    root = Path(__file__).resolve().parent.parent
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--input", type=Path, default=root / "src" / "main" / "resources" / MODEL_NAME,
+                        help="model returning last_hidden_state")
+    parser.add_argument("--output", type=Path, default=default_output(), help="where to write the pooled model")
+    args = parser.parse_args()
+
+    model = add_pooling(onnx.load(str(args.input)))
+    args.output.parent.mkdir(parents=True, exist_ok=True)
+    onnx.save(model, str(args.output))
+    print(f"Wrote {args.output}")
+
+
+if __name__ == "__main__":
+    main()
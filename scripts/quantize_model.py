@@ -0,0 +1,60 @@
+#!/usr/bin/env python3
+"""Produce the INT8 variant of all-MiniLM-L6-v2 used by ModelVariant.INT8.
+
+The FP32 model bundled in src/main/resources is dynamically quantized with ONNX Runtime:
+MatMul weights are stored as signed 8-bit integers and activations are quantized at run time,
+which needs no calibration data.
+
+By default the quantized model is written to the minilm-lite cache directory
+(~/.cache/minilm-lite, or $MINILM_CACHE_DIR), where MiniLMEmbedder.getModel(ModelVariant.INT8)
+looks for it. To bundle it with the library instead, write it to src/main/resources.
+
+Requirements: pip install onnxruntime onnx
+
+Usage:
+    python scripts/quantize_model.py [--input MODEL] [--output MODEL] [--per-channel]
+"""
+
+import argparse
+import os
+from pathlib import Path
+
+from onnxruntime.quantization import QuantType, quantize_dynamic
+
+MODEL_NAME = "all-minilm-l6-v2.onnx"
+INT8_MODEL_NAME = "all-minilm-l6-v2-int8.onnx"
+
+
+def default_output() -> Path:
+    cache_dir = os.environ.get("MINILM_CACHE_DIR")
+    base = Path(cache_dir) if cache_dir else Path.home() / ".cache" / "minilm-lite"
+    return base / INT8_MODEL_NAME
+
+
+def main() -> None:
+    root = Path(__file__).resolve().parent.parent
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--input", type=Path, default=root / "src" / "main" / "resources" / MODEL_NAME,
+                        help="FP32 model to quantize")
+    parser.add_argument("--output", type=Path, default=default_output(), help="where to write the INT8 model")
+    parser.add_argument("--per-channel", action="store_true",
+                        help="quantize weights per output channel (more accurate, slightly slower)")
+    args = parser.parse_args()
+
+    args.output.parent.mkdir(parents=True, exist_ok=True)
+    quantize_dynamic(
+        model_input=str(args.input),
+        model_output=str(args.output),
+        op_types_to_quantize=["MatMul"],
+        weight_type=QuantType.QInt8,
+        per_channel=args.per_channel,
+    )
+
+    before = args.input.stat().st_size / 2**20
+    after = args.output.stat().st_size / 2**20
+    print(f"Wrote {args.output} ({after:.1f} MB, FP32 model is {before:.1f} MB)")
+    print("Compare it against the FP32 model with: mvn test -Dtest=ModelVariantTest")
+
+
+if __name__ == "__main__":
+    main()
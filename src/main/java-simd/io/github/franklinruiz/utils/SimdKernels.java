@@ -0,0 +1,135 @@
+package io.github.franklinruiz.utils;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels implemented with the Java Vector API, which compiles to the widest SIMD instructions of the CPU.
+ * Each loop processes one vector of lanes per iteration and finishes the remaining elements with scalar code.
+ * <p>
+ * This class depends on the {@code jdk.incubator.vector} module, so it is compiled separately from the rest of
+ * the library, and is only loaded by {@link VectorKernels} when that module is present, e.g. when the JVM is
+ * started with {@code --add-modules jdk.incubator.vector}, and {@link #isSupported()} holds.
+ */
+final class SimdKernels implements Kernels {
+
+    // Widest float and double vector shapes supported by the CPU.
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Checks whether the CPU has SIMD registers holding several doubles. Without them the Vector API falls back
+     * to code slower than the scalar loops.
+     *
+     * @return true if these kernels are faster than the scalar loops.
+     */
+    static boolean isSupported() {
+        return DOUBLES.length() > 1;
+    }
+
+    @Override
+    public float dot(float[] a, float[] b) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(a.length); i < bound; i += FLOATS.length()) {
+            sum = FloatVector.fromArray(FLOATS, a, i).fma(FloatVector.fromArray(FLOATS, b, i), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(a.length); i < bound; i += DOUBLES.length()) {
+            sum = DoubleVector.fromArray(DOUBLES, a, i).fma(DoubleVector.fromArray(DOUBLES, b, i), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, float[] y) {
+        axpy(alpha, x, 0, y);
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y) {
+        axpy(alpha, x, 0, y);
+    }
+
+    @Override
+    public void scale(float alpha, float[] x) {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(x.length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, x, i).mul(alpha).intoArray(x, i);
+        }
+        for (; i < x.length; i++) {
+            x[i] *= alpha;
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(x.length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, i).mul(alpha).intoArray(x, i);
+        }
+        for (; i < x.length; i++) {
+            x[i] *= alpha;
+        }
+    }
+
+    @Override
+    public float[] meanRows(float[] matrix, int offset, int rows, int columns) {
+        float[] mean = new float[columns];
+        for (int row = 0; row < rows; row++) {
+            axpy(1.0F, matrix, offset + row * columns, mean);
+        }
+        scale(1.0F / rows, mean);
+        return mean;
+    }
+
+    @Override
+    public double[] meanRows(double[] matrix, int offset, int rows, int columns) {
+        double[] mean = new double[columns];
+        for (int row = 0; row < rows; row++) {
+            axpy(1.0, matrix, offset + row * columns, mean);
+        }
+        scale(1.0 / rows, mean);
+        return mean;
+    }
+
+    // y += alpha * x[offset .. offset + y.length)
+    private static void axpy(float alpha, float[] x, int offset, float[] y) {
+        FloatVector factor = FloatVector.broadcast(FLOATS, alpha);
+        int i = 0;
+        for (int bound = FLOATS.loopBound(y.length); i < bound; i += FLOATS.length()) {
+            FloatVector.fromArray(FLOATS, x, offset + i).fma(factor, FloatVector.fromArray(FLOATS, y, i)).intoArray(y, i);
+        }
+        for (; i < y.length; i++) {
+            y[i] += alpha * x[offset + i];
+        }
+    }
+
+    // y += alpha * x[offset .. offset + y.length)
+    private static void axpy(double alpha, double[] x, int offset, double[] y) {
+        DoubleVector factor = DoubleVector.broadcast(DOUBLES, alpha);
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(y.length); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, x, offset + i).fma(factor, DoubleVector.fromArray(DOUBLES, y, i)).intoArray(y, i);
+        }
+        for (; i < y.length; i++) {
+            y[i] += alpha * x[offset + i];
+        }
+    }
+}
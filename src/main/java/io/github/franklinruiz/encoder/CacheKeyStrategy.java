@@ -0,0 +1,20 @@
+package io.github.franklinruiz.encoder;
+
+/**
+ * Enum to select how {@link MiniLMEmbedder} keys its embedding cache.
+ */
+public enum CacheKeyStrategy {
+
+    /**
+     * Keys entries by their normalized text. Exact, but every entry retains its text, which for long documents
+     * takes far more memory than the embedding itself.
+     */
+    TEXT,
+
+    /**
+     * Keys entries by a 128-bit hash of their normalized text, so that entries take the same small amount of memory
+     * whatever the length of the text. Two different texts are only confused if their hashes collide, which is
+     * vanishingly unlikely even for billions of entries.
+     */
+    CONTENT_HASH
+}
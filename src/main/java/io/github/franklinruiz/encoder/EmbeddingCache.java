@@ -0,0 +1,658 @@
+package io.github.franklinruiz.encoder;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * EmbeddingCache is a bounded cache of embeddings keyed by normalized text that can be shared between threads.
+ * Embeddings are copied on the way in and out to protect the cached values from external mutation.
+ * <p>
+ * Lookups are lock-free: entries live in a {@link ConcurrentHashMap} and each hit is only recorded in a small
+ * per-thread-stripe buffer. The eviction policy is updated in batches by whichever thread drains a full buffer
+ * or inserts an entry, under a lock that readers never wait for.
+ * <p>
+ * Eviction follows the W-TinyLFU policy. New entries enter a small LRU admission window; entries leaving the window
+ * only replace an entry of the main space if they have been requested more often, as estimated by a count-min
+ * sketch of recent key frequencies. The main space is a segmented LRU that protects entries hit at least twice.
+ * A one-off pass over many distinct texts therefore cycles through the window and probation segments instead of
+ * flushing the frequently requested embeddings.
+ * <p>
+ * The cache can be bounded both in entries and in bytes, the latter being an estimate of the memory retained by
+ * each entry including its key. Entries are keyed by their text or, to avoid retaining long texts, by a 128-bit
+ * hash of it. A bound of zero disables caching.
+ */
+class EmbeddingCache {
+
+    // Share of the capacity given to the admission window; the rest is the main space.
+    private static final double WINDOW_SHARE = 0.01;
+
+    // Share of the main space reserved for entries that were hit after their admission.
+    private static final double PROTECTED_SHARE = 0.8;
+
+    // Number of read buffers, a power of two; threads record their hits in the buffer selected by their id.
+    private static final int READ_BUFFER_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    // Number of hits a read buffer holds before it is drained into the eviction policy.
+    private static final int READ_BUFFER_SIZE = 32;
+
+    // Estimated bytes retained by an entry besides its key and the elements of its embedding:
+    // the entry and its map node, the map table slot and the array header.
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    // Estimated bytes retained by a text key besides its characters: the String and its array header.
+    private static final int TEXT_KEY_OVERHEAD_BYTES = 40;
+
+    // Estimated bytes retained by a content hash key.
+    private static final int HASH_KEY_BYTES = 32;
+
+    // Average entry size assumed to size the frequency sketch of caches bounded in bytes only.
+    private static final int SKETCH_BYTES_PER_ENTRY = 2048;
+
+    // Queues an entry can be in, or DEAD once it has been evicted.
+    private static final byte DEAD = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    // Entries by key, read without locking.
+    private final ConcurrentHashMap<Object, Node> data;
+
+    // How entries are keyed.
+    private final CacheKeyStrategy keyStrategy;
+
+    // Whether caching is disabled because a bound is zero.
+    private final boolean disabled;
+
+    // Number of lookups that found or did not find an entry.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Lock guarding the eviction policy: the queues, their sizes and the frequency sketch.
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Buffers of hits not yet applied to the eviction policy.
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+
+    // Estimated access frequencies of recently requested texts.
+    private final FrequencySketch sketch;
+
+    // LRU queues of the admission window and of the probation and protected segments of the main space.
+    private final AccessOrderQueue window = new AccessOrderQueue();
+    private final AccessOrderQueue probation = new AccessOrderQueue();
+    private final AccessOrderQueue protectedQueue = new AccessOrderQueue();
+
+    // Maximum number of entries and of estimated bytes.
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Whether the segments are sized in bytes rather than in entries, which is the case when the bytes are bounded.
+    private final boolean weighByBytes;
+
+    // Maximum weight in total, in the window and in the protected segment, in bytes or entries.
+    private final long maxWeight;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+
+    // Weight in total, in the window and in the protected segment, guarded by the eviction lock.
+    private long weight;
+    private long windowWeight;
+    private long protectedWeight;
+
+    // Number of entries and estimated bytes, written under the eviction lock.
+    private volatile int size;
+    private volatile long bytes;
+
+    /**
+     * Constructs an EmbeddingCache that keeps at most the given number of embeddings and estimated bytes.
+     *
+     * @param maxEntries  The maximum number of cached embeddings, or 0 to disable caching.
+     * @param maxBytes    The maximum estimated memory retained by the cache, or 0 to disable caching.
+     * @param keyStrategy How entries are keyed.
+     */
+    EmbeddingCache(int maxEntries, long maxBytes, CacheKeyStrategy keyStrategy) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Cache bounds must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.keyStrategy = Objects.requireNonNull(keyStrategy, "Cache key strategy cannot be null");
+        this.disabled = maxEntries == 0 || maxBytes == 0;
+        this.weighByBytes = maxBytes != Long.MAX_VALUE;
+        this.maxWeight = weighByBytes ? maxBytes : maxEntries;
+        this.windowCapacity = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.protectedCapacity = (long) ((maxWeight - windowCapacity) * PROTECTED_SHARE);
+        int expectedEntries = (int) Math.max(1, Math.min(maxEntries, maxBytes / SKETCH_BYTES_PER_ENTRY));
+        this.data = new ConcurrentHashMap<>(Math.min(expectedEntries, 1 << 16));
+        this.sketch = new FrequencySketch(expectedEntries);
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * Returns a copy of the cached embedding for the given text.
+     *
+     * @param text The normalized text.
+     * @return A copy of the cached embedding, or null if the text is not cached.
+     */
+    float[] get(String text) {
+        float[] cached = lookup(text);
+        return cached == null ? null : Arrays.copyOf(cached, cached.length);
+    }
+
+    /**
+     * Returns a copy of the cached embedding for the given text without recording the lookup, neither in the hit
+     * and miss counts nor in the eviction policy, for callers checking again a text they already looked up.
+     *
+     * @param text The normalized text.
+     * @return A copy of the cached embedding, or null if the text is not cached.
+     */
+    float[] peek(String text) {
+        if (disabled) {
+            return null;
+        }
+        Node node = data.get(keyOf(text));
+        if (node == null) {
+            return null;
+        }
+        float[] value = node.value;
+        return Arrays.copyOf(value, value.length);
+    }
+
+    /**
+     * Copies the cached embedding for the given text into the destination array, without allocating.
+     * Cached arrays are never modified once stored, so the copy needs no lock.
+     *
+     * @param text        The normalized text.
+     * @param destination The array receiving the cached embedding, of the size of the embeddings.
+     * @return true if the text is cached and the destination was filled.
+     */
+    boolean getInto(String text, float[] destination) {
+        float[] cached = lookup(text);
+        if (cached == null) {
+            return false;
+        }
+        System.arraycopy(cached, 0, destination, 0, cached.length);
+        return true;
+    }
+
+    /**
+     * Copies the cached embedding for the given text into the destination without recording the lookup, as in
+     * {@link #peek(String)}.
+     *
+     * @param text        The normalized text.
+     * @param destination The array receiving the embedding.
+     * @return true if the text was cached and its embedding copied.
+     */
+    boolean peekInto(String text, float[] destination) {
+        if (disabled) {
+            return false;
+        }
+        Node node = data.get(keyOf(text));
+        if (node == null) {
+            return false;
+        }
+        float[] value = node.value;
+        System.arraycopy(value, 0, destination, 0, value.length);
+        return true;
+    }
+
+    /**
+     * Caches a copy of the embedding for the given text. The entry may be evicted right away if the cache is full
+     * and the text has been requested less often than the entries it would replace.
+     *
+     * @param text      The normalized text.
+     * @param embedding The embedding to cache.
+     * @return The cached copy, which is never modified and must not be modified by the caller,
+     * or null if the embedding was not cached.
+     */
+    float[] put(String text, float[] embedding) {
+        if (disabled) {
+            return null;
+        }
+        Object key = keyOf(text);
+        int entryBytes = ENTRY_OVERHEAD_BYTES + Float.BYTES * embedding.length
+                + (key instanceof String ? TEXT_KEY_OVERHEAD_BYTES + 2 * text.length() : HASH_KEY_BYTES);
+        long entryWeight = weighByBytes ? entryBytes : 1;
+        if (entryBytes > maxBytes) {
+            // Caching it would evict everything else
+            return null;
+        }
+        float[] copy = Arrays.copyOf(embedding, embedding.length);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node node = data.get(key);
+            if (node != null) {
+                node.value = copy;
+                onAccess(node);
+                return copy;
+            }
+            node = new Node(key, copy, entryWeight, entryBytes);
+            data.put(key, node);
+            onAdd(node);
+        } finally {
+            evictionLock.unlock();
+        }
+        return copy;
+    }
+
+    /**
+     * Checks whether the cache can hold any entry, i.e. neither its capacity nor its byte bound is zero.
+     *
+     * @return true if embeddings are cached.
+     */
+    boolean isEnabled() {
+        return !disabled;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached embedding.
+     *
+     * @return The number of hits.
+     */
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached embedding.
+     *
+     * @return The number of misses.
+     */
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of cached embeddings.
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the estimated memory retained by the cached embeddings and their keys.
+     *
+     * @return The estimated number of bytes.
+     */
+    long estimatedBytes() {
+        return bytes;
+    }
+
+    // Returns the cached array without copying it, recording the hit.
+    private float[] lookup(String text) {
+        if (disabled) {
+            return null;
+        }
+        Node node = data.get(keyOf(text));
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        float[] value = node.value;
+        afterRead(node);
+        return value;
+    }
+
+    private Object keyOf(String text) {
+        return keyStrategy == CacheKeyStrategy.TEXT ? text : ContentHash.of(text);
+    }
+
+    // Records a hit, draining the read buffer into the eviction policy once it is full unless another thread is
+    // already doing so. When the buffer overflows the hit is dropped, which only makes the policy slightly less
+    // accurate.
+    private void afterRead(Node node) {
+        ReadBuffer buffer = readBuffers[(int) mix(Thread.currentThread().getId()) & (READ_BUFFER_STRIPES - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    // Adds a new entry to the admission window and evicts entries if the cache is over capacity.
+    private void onAdd(Node node) {
+        sketch.increment(node.key);
+        node.queue = WINDOW;
+        window.addLast(node);
+        windowWeight += node.weight;
+        weight += node.weight;
+        size++;
+        bytes += node.bytes;
+        evict();
+    }
+
+    // Applies a hit to the eviction policy: probation entries are promoted to the protected segment,
+    // and other entries move to the most recently used end of their queue.
+    private void onAccess(Node node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW -> window.moveToLast(node);
+            case PROBATION -> {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                protectedWeight += node.weight;
+                // The least recently used protected entries go back on probation
+                while (protectedWeight > protectedCapacity) {
+                    Node demoted = protectedQueue.pollFirst();
+                    protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+            case PROTECTED -> protectedQueue.moveToLast(node);
+            default -> {
+                // Evicted since the hit was recorded
+            }
+        }
+    }
+
+    // Moves the entries overflowing the window to probation, then, while the cache is over capacity, lets each
+    // candidate from the window compete with the least recently used probation entry: the one requested less
+    // often is evicted, the candidate losing ties so that the main space is not churned by one-off texts.
+    private void evict() {
+        while (windowWeight > windowCapacity) {
+            Node candidate = window.pollFirst();
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (weight > maxWeight || size > maxEntries) {
+            Node victim = probation.peekFirst();
+            Node candidate = probation.peekLast();
+            if (victim == null) {
+                // Every main entry is protected, which only happens for tiny capacities
+                victim = protectedQueue.peekFirst() != null ? protectedQueue.peekFirst() : window.peekFirst();
+                evictEntry(victim);
+            } else if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evictEntry(victim);
+            } else {
+                evictEntry(candidate);
+            }
+        }
+    }
+
+    private void evictEntry(Node node) {
+        switch (node.queue) {
+            case WINDOW -> {
+                window.remove(node);
+                windowWeight -= node.weight;
+            }
+            case PROBATION -> probation.remove(node);
+            case PROTECTED -> {
+                protectedQueue.remove(node);
+                protectedWeight -= node.weight;
+            }
+            default -> {
+                return;
+            }
+        }
+        node.queue = DEAD;
+        weight -= node.weight;
+        size--;
+        bytes -= node.bytes;
+        data.remove(node.key, node);
+    }
+
+    // Spreads the bits of a thread id or a hash code.
+    private static long mix(long value) {
+        long x = value * 0x9E3779B97F4A7C15L;
+        return x ^ (x >>> 32);
+    }
+
+    // A cached embedding linked into the queue of the eviction policy it belongs to.
+    private static final class Node {
+        private final Object key;
+        private final long weight;
+        private final int bytes;
+        private volatile float[] value;
+        private byte queue;
+        private Node previous;
+        private Node next;
+
+        Node(Object key, float[] value, long weight, int bytes) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.bytes = bytes;
+        }
+    }
+
+    // A 128-bit hash of a text, computed with the MurmurHash3 x64 128-bit mixing over its UTF-16 code units.
+    private record ContentHash(long high, long low) {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        static ContentHash of(String text) {
+            long h1 = 0;
+            long h2 = 0;
+            int length = text.length();
+            int blocks = length / 8;
+            // Each block packs eight characters into two 64-bit lanes
+            for (int i = 0; i < blocks; i++) {
+                int offset = i * 8;
+                long k1 = pack(text, offset);
+                long k2 = pack(text, offset + 4);
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27) + h2;
+                h1 = h1 * 5 + 0x52dce729;
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31) + h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = blocks * 8, lane = 0; i < length; i++, lane++) {
+                if (lane < 4) {
+                    k1 |= (long) text.charAt(i) << (16 * lane);
+                } else {
+                    k2 |= (long) text.charAt(i) << (16 * (lane - 4));
+                }
+            }
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+
+            h1 ^= 2L * length;
+            h2 ^= 2L * length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            return new ContentHash(h1, h2);
+        }
+
+        private static long pack(String text, int offset) {
+            return text.charAt(offset) | (long) text.charAt(offset + 1) << 16
+                    | (long) text.charAt(offset + 2) << 32 | (long) text.charAt(offset + 3) << 48;
+        }
+
+        private static long mixK1(long k1) {
+            return Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+
+        private static long mixK2(long k2) {
+            return Long.rotateLeft(k2 * C2, 33) * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) low;
+        }
+    }
+
+    // A doubly linked list of entries from least to most recently used, guarded by the eviction lock.
+    private static final class AccessOrderQueue {
+        private Node first;
+        private Node last;
+
+        Node peekFirst() {
+            return first;
+        }
+
+        Node peekLast() {
+            return last;
+        }
+
+        Node pollFirst() {
+            Node node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void moveToLast(Node node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+    }
+
+    // A bounded, lossy buffer of hits filled by readers and drained under the eviction lock.
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private volatile long reads;
+
+        // Records a hit and returns true if the buffer is full and should be drained.
+        boolean offer(Node node) {
+            long tail = writes.get();
+            long pending = tail - reads;
+            if (pending >= READ_BUFFER_SIZE) {
+                return true;
+            }
+            if (writes.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+            }
+            return pending + 1 >= READ_BUFFER_SIZE;
+        }
+
+        // Applies the recorded hits to the eviction policy; must be called under the eviction lock.
+        void drain(EmbeddingCache cache) {
+            long head = reads;
+            long tail = writes.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & (READ_BUFFER_SIZE - 1));
+                Node node = slots.get(index);
+                if (node == null) {
+                    // The reader that claimed this slot has not stored its hit yet
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            reads = head;
+        }
+    }
+
+    // A count-min sketch of 4-bit counters estimating how often each text was requested recently.
+    // Counters are halved once the number of recorded accesses reaches ten times the capacity, so that
+    // the estimates follow changes in popularity. Guarded by the eviction lock.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            // Each long holds 16 counters, so this gives four counters per entry
+            this.table = new long[Math.max(8, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1)];
+            this.sampleSize = 10 * capacity;
+        }
+
+        int frequency(Object key) {
+            int hash = (int) mix(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long counters = table[indexOf(hash, i)];
+                frequency = Math.min(frequency, (int) ((counters >>> ((start + i) << 2)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = (int) mix(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                long mask = 0xfL << ((start + i) << 2);
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << ((start + i) << 2);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & (table.length - 1);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package io.github.franklinruiz.encoder;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * EncoderConfig holds the runtime settings used to create an {@link OnnxBertEncoder}.
+ * It exposes the ONNX Runtime session options that matter for CPU inference (thread pools, graph optimization,
+ * execution mode and memory allocation) together with the number of inference calls allowed to run in parallel.
+ * Settings that are not configured keep the ONNX Runtime defaults. The one exception is an explicitly configured
+ * {@link Builder#maxConcurrentInferences(int) number of concurrent inferences} without a number of intra-op threads:
+ * the cores are then shared out between the parallel inferences instead of every inference using all of them.
+ * <p>
+ * Instances are immutable and created through {@link #builder()}:
+ * <pre>{@code
+ * EncoderConfig config = EncoderConfig.builder()
+ *         .intraOpNumThreads(2)
+ *         .optimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT)
+ *         .maxConcurrentInferences(4)
+ *         .build();
+ * }</pre>
+ */
+public class EncoderConfig {
+
+    private static final EncoderConfig DEFAULT = builder().build();
+
+    private final Integer intraOpNumThreads;
+    private final Integer interOpNumThreads;
+    private final OrtSession.SessionOptions.OptLevel optimizationLevel;
+    private final OrtSession.SessionOptions.ExecutionMode executionMode;
+    private final Boolean memoryPatternOptimization;
+    private final Boolean cpuArenaAllocator;
+    private final OrtSession.SessionOptions sessionOptions;
+    private final Path optimizedModelDirectory;
+    private final int maxConcurrentInferences;
+    private final boolean maxConcurrentInferencesConfigured;
+    private final TokenizerImplementation tokenizerImplementation;
+
+    private EncoderConfig(Builder builder) {
+        this.intraOpNumThreads = builder.intraOpNumThreads;
+        this.interOpNumThreads = builder.interOpNumThreads;
+        this.optimizationLevel = builder.optimizationLevel;
+        this.executionMode = builder.executionMode;
+        this.memoryPatternOptimization = builder.memoryPatternOptimization;
+        this.cpuArenaAllocator = builder.cpuArenaAllocator;
+        this.sessionOptions = builder.sessionOptions;
+        this.optimizedModelDirectory = builder.optimizedModelDirectory;
+        this.maxConcurrentInferences = builder.maxConcurrentInferences;
+        this.maxConcurrentInferencesConfigured = builder.maxConcurrentInferencesConfigured;
+        this.tokenizerImplementation = builder.tokenizerImplementation;
+    }
+
+    /**
+     * Returns the default configuration, which keeps all ONNX Runtime defaults.
+     *
+     * @return The default EncoderConfig.
+     */
+    public static EncoderConfig defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new builder for an EncoderConfig.
+     *
+     * @return A new Builder initialized with the default settings.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the maximum number of inference calls allowed to run in parallel on the shared session.
+     *
+     * @return The maximum number of concurrent inference calls.
+     */
+    public int getMaxConcurrentInferences() {
+        return maxConcurrentInferences;
+    }
+
+    /**
+     * Returns the directory where optimized graphs are persisted, or null if persistence is disabled.
+     *
+     * @return The optimized model directory.
+     */
+    public Path getOptimizedModelDirectory() {
+        return optimizedModelDirectory;
+    }
+
+    /**
+     * Returns the tokenizer implementation used to tokenize the texts.
+     *
+     * @return The tokenizer implementation.
+     */
+    public TokenizerImplementation getTokenizerImplementation() {
+        return tokenizerImplementation;
+    }
+
+    /**
+     * Returns the configured graph optimization level, or null if the ONNX Runtime default is kept.
+     *
+     * @return The graph optimization level.
+     */
+    OrtSession.SessionOptions.OptLevel getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    /**
+     * Returns the session options to create the session with: the custom session options if they were supplied,
+     * which are returned unchanged, or new session options described by this configuration otherwise.
+     *
+     * @return The session options to create the session with.
+     * @throws OrtException If ONNX Runtime rejects one of the settings.
+     */
+    OrtSession.SessionOptions toSessionOptions() throws OrtException {
+        return sessionOptions != null ? sessionOptions : newSessionOptions();
+    }
+
+    /**
+     * Creates new session options with the settings of this configuration, ignoring the custom session options.
+     * The caller owns the returned options and must close them once the session has been created.
+     *
+     * @return New session options.
+     * @throws OrtException If ONNX Runtime rejects one of the settings.
+     */
+    OrtSession.SessionOptions newSessionOptions() throws OrtException {
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        if (intraOpNumThreads != null) {
+            options.setIntraOpNumThreads(intraOpNumThreads);
+        } else if (maxConcurrentInferencesConfigured && maxConcurrentInferences > 1) {
+            // Concurrent inferences each using every core would only compete for them, so the cores are shared out.
+            // The default concurrency keeps the ONNX Runtime default, so that isolated calls still use every core
+            options.setIntraOpNumThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / maxConcurrentInferences));
+        }
+        if (interOpNumThreads != null) {
+            options.setInterOpNumThreads(interOpNumThreads);
+        }
+        if (optimizationLevel != null) {
+            options.setOptimizationLevel(optimizationLevel);
+        }
+        if (executionMode != null) {
+            options.setExecutionMode(executionMode);
+        }
+        if (memoryPatternOptimization != null) {
+            options.setMemoryPatternOptimization(memoryPatternOptimization);
+        }
+        if (cpuArenaAllocator != null) {
+            options.setCPUArenaAllocator(cpuArenaAllocator);
+        }
+        return options;
+    }
+
+    /**
+     * Checks whether the session options returned by {@link #toSessionOptions()} are owned by the caller,
+     * in which case they must be closed once the session has been created.
+     *
+     * @return true if the session options were created by this configuration.
+     */
+    boolean ownsSessionOptions() {
+        return sessionOptions == null;
+    }
+
+    /**
+     * Two configurations are equal when they create identical sessions: all settings are equal
+     * and they use the same base session options instance, if any.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EncoderConfig other)) {
+            return false;
+        }
+        return maxConcurrentInferences == other.maxConcurrentInferences
+                && maxConcurrentInferencesConfigured == other.maxConcurrentInferencesConfigured
+                && Objects.equals(intraOpNumThreads, other.intraOpNumThreads)
+                && Objects.equals(interOpNumThreads, other.interOpNumThreads)
+                && optimizationLevel == other.optimizationLevel
+                && executionMode == other.executionMode
+                && Objects.equals(memoryPatternOptimization, other.memoryPatternOptimization)
+                && Objects.equals(cpuArenaAllocator, other.cpuArenaAllocator)
+                && sessionOptions == other.sessionOptions
+                && Objects.equals(optimizedModelDirectory, other.optimizedModelDirectory)
+                && tokenizerImplementation == other.tokenizerImplementation;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(intraOpNumThreads, interOpNumThreads, optimizationLevel, executionMode, memoryPatternOptimization,
+                cpuArenaAllocator, System.identityHashCode(sessionOptions), optimizedModelDirectory, maxConcurrentInferences,
+                maxConcurrentInferencesConfigured, tokenizerImplementation);
+    }
+
+    /**
+     * Builder for {@link EncoderConfig}.
+     */
+    public static class Builder {
+        private Integer intraOpNumThreads;
+        private Integer interOpNumThreads;
+        private OrtSession.SessionOptions.OptLevel optimizationLevel;
+        private OrtSession.SessionOptions.ExecutionMode executionMode;
+        private Boolean memoryPatternOptimization;
+        private Boolean cpuArenaAllocator;
+        private OrtSession.SessionOptions sessionOptions;
+        private Path optimizedModelDirectory;
+        private int maxConcurrentInferences = OnnxBertEncoder.DEFAULT_MAX_CONCURRENT_INFERENCES;
+        private boolean maxConcurrentInferencesConfigured;
+        private TokenizerImplementation tokenizerImplementation = TokenizerImplementation.HUGGING_FACE;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of threads used to parallelize the execution within a single operator.
+         * By default ONNX Runtime uses every core, unless {@link #maxConcurrentInferences(int)} is set, in which case
+         * each parallel inference gets an equal share of the cores.
+         *
+         * @param threads The number of intra-op threads, or 0 to let ONNX Runtime decide.
+         * @return This builder.
+         */
+        public Builder intraOpNumThreads(int threads) {
+            this.intraOpNumThreads = requireNonNegative(threads, "Intra-op threads");
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used to run independent operators in parallel.
+         * Only relevant when the execution mode is {@code PARALLEL}.
+         *
+         * @param threads The number of inter-op threads, or 0 to let ONNX Runtime decide.
+         * @return This builder.
+         */
+        public Builder interOpNumThreads(int threads) {
+            this.interOpNumThreads = requireNonNegative(threads, "Inter-op threads");
+            return this;
+        }
+
+        /**
+         * Sets the graph optimization level applied when the session is created.
+         *
+         * @param optimizationLevel The graph optimization level.
+         * @return This builder.
+         */
+        public Builder optimizationLevel(OrtSession.SessionOptions.OptLevel optimizationLevel) {
+            this.optimizationLevel = optimizationLevel;
+            return this;
+        }
+
+        /**
+         * Sets whether operators are executed sequentially or in parallel.
+         *
+         * @param executionMode The execution mode.
+         * @return This builder.
+         */
+        public Builder executionMode(OrtSession.SessionOptions.ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        /**
+         * Enables or disables memory pattern optimization, which pre-allocates memory for repeated input shapes.
+         *
+         * @param enabled true to enable memory pattern optimization.
+         * @return This builder.
+         */
+        public Builder memoryPatternOptimization(boolean enabled) {
+            this.memoryPatternOptimization = enabled;
+            return this;
+        }
+
+        /**
+         * Enables or disables the CPU memory arena allocator.
+         *
+         * @param enabled true to enable the CPU arena allocator.
+         * @return This builder.
+         */
+        public Builder cpuArenaAllocator(boolean enabled) {
+            this.cpuArenaAllocator = enabled;
+            return this;
+        }
+
+        /**
+         * Uses the given session options for the session, e.g. to register execution providers. The options remain
+         * owned by the caller and are never modified, so they cannot be combined with the session settings of this
+         * builder (threads, optimization level, execution mode and allocation), which must then be set on the
+         * options themselves, nor with {@link #optimizedModelDirectory(Path)}.
+         *
+         * @param sessionOptions The base session options.
+         * @return This builder.
+         */
+        public Builder sessionOptions(OrtSession.SessionOptions sessionOptions) {
+            this.sessionOptions = sessionOptions;
+            return this;
+        }
+
+        /**
+         * Persists the optimized graph of models loaded from a file in the given directory.
+         * The first start optimizes the model and writes the result; later starts load the optimized graph
+         * with optimizations disabled, which shortens session creation. The graph is optimized at the configured
+         * level, or at {@code ALL_OPT}, the default of ONNX Runtime, if none is set. Graphs optimized at that level
+         * may depend on the hardware they were optimized on, so the directory should not be shared between machines.
+         * Loading a pre-optimized graph requires session options owned by this configuration, so persistence cannot
+         * be combined with {@link #sessionOptions(OrtSession.SessionOptions)}.
+         *
+         * @param directory The directory holding the optimized graphs, or null to disable persistence.
+         * @return This builder.
+         */
+        public Builder optimizedModelDirectory(Path directory) {
+            this.optimizedModelDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of inference calls allowed to run in parallel on the shared session, which defaults
+         * to the number of cores. Unless {@link #intraOpNumThreads(int)} is set too, setting it shares the cores out
+         * between the parallel inferences, which favors throughput under concurrent load over the latency of
+         * isolated calls.
+         *
+         * @param maxConcurrentInferences The maximum number of concurrent inference calls.
+         * @return This builder.
+         */
+        public Builder maxConcurrentInferences(int maxConcurrentInferences) {
+            if (maxConcurrentInferences <= 0) {
+                throw new IllegalArgumentException("Max concurrent inferences must be positive");
+            }
+            this.maxConcurrentInferences = maxConcurrentInferences;
+            this.maxConcurrentInferencesConfigured = true;
+            return this;
+        }
+
+        /**
+         * Selects the tokenizer implementation. Defaults to {@link TokenizerImplementation#HUGGING_FACE};
+         * {@link TokenizerImplementation#WORD_PIECE} avoids the JNI overhead for BERT-style tokenizers.
+         *
+         * @param tokenizerImplementation The tokenizer implementation.
+         * @return This builder.
+         */
+        public Builder tokenizerImplementation(TokenizerImplementation tokenizerImplementation) {
+            if (tokenizerImplementation == null) {
+                throw new IllegalArgumentException("Tokenizer implementation cannot be null");
+            }
+            this.tokenizerImplementation = tokenizerImplementation;
+            return this;
+        }
+
+        /**
+         * Builds the EncoderConfig.
+         *
+         * @return A new immutable EncoderConfig.
+         * @throws IllegalArgumentException If custom session options are combined with session settings
+         *                                  or with an optimized model directory.
+         */
+        public EncoderConfig build() {
+            if (sessionOptions != null && (intraOpNumThreads != null || interOpNumThreads != null
+                    || optimizationLevel != null || executionMode != null
+                    || memoryPatternOptimization != null || cpuArenaAllocator != null)) {
+                throw new IllegalArgumentException("Custom session options cannot be combined with session settings");
+            }
+            if (sessionOptions != null && optimizedModelDirectory != null) {
+                // Session options can be neither copied nor inspected, so the cached graph would be optimized again
+                throw new IllegalArgumentException("Custom session options cannot be combined with an optimized model directory");
+            }
+            return new EncoderConfig(this);
+        }
+
+        private static int requireNonNegative(int value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " cannot be negative");
+            }
+            return value;
+        }
+    }
+}
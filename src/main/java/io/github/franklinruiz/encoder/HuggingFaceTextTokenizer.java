@@ -0,0 +1,85 @@
+package io.github.franklinruiz.encoder;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.djl.huggingface.tokenizers.jni.TokenizersLibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HuggingFaceTextTokenizer runs the native Hugging Face tokenizers library through DJL.
+ * It supports every tokenizer described by a {@code tokenizer.json} file.
+ */
+class HuggingFaceTextTokenizer implements TextTokenizer {
+
+    // Native tokenizer, compatible with the Hugging Face format.
+    private final HuggingFaceTokenizer tokenizer;
+
+    /**
+     * Loads the tokenizer described by the given {@code tokenizer.json} stream.
+     * The options override the padding and truncation settings stored in the file.
+     *
+     * @param tokenizer InputStream representing the tokenizer configuration file.
+     * @param options   Tokenizer options, e.g. {@code padding} and {@code truncation}.
+     * @throws IOException If the stream cannot be read.
+     */
+    HuggingFaceTextTokenizer(InputStream tokenizer, Map<String, String> options) throws IOException {
+        this.tokenizer = HuggingFaceTokenizer.newInstance(tokenizer, options);
+    }
+
+    @Override
+    public TokenizedText encode(String text) {
+        return toTokenizedText(tokenizer.encode(text, true, false));
+    }
+
+    // The texts are tokenized in parallel in a single native call.
+    @Override
+    public List<TokenizedText> encodeBatch(List<String> texts) {
+        Encoding[] encodings = tokenizer.batchEncode(texts, true, false);
+        List<TokenizedText> results = new ArrayList<>(encodings.length);
+        for (Encoding encoding : encodings) {
+            results.add(toTokenizedText(encoding));
+        }
+        return results;
+    }
+
+    // Only the token ids are read from the native encoding, instead of materializing the token strings.
+    @Override
+    public int countTokens(String text) {
+        long encoding = TokenizersLibrary.LIB.encode(tokenizer.getHandle(), text, true);
+        return countAndDelete(encoding);
+    }
+
+    // The texts are tokenized in parallel in a single native call.
+    @Override
+    public int[] countTokensBatch(List<String> texts) {
+        long[] encodings = TokenizersLibrary.LIB.batchEncode(tokenizer.getHandle(), texts.toArray(new String[0]), true);
+        int[] counts = new int[encodings.length];
+        for (int i = 0; i < encodings.length; i++) {
+            counts[i] = countAndDelete(encodings[i]);
+        }
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        tokenizer.close();
+    }
+
+    private static TokenizedText toTokenizedText(Encoding encoding) {
+        return new TokenizedText(encoding.getIds(), encoding.getTypeIds(), encoding.getWordIds());
+    }
+
+    // Reads the number of token ids of a native encoding and releases it.
+    private static int countAndDelete(long encoding) {
+        try {
+            return TokenizersLibrary.LIB.getTokenIds(encoding).length;
+        } finally {
+            TokenizersLibrary.LIB.deleteEncoding(encoding);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.franklinruiz.encoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LengthBucketedBatchScheduler groups texts of similar token length into the same inference batch.
+ * Every batch is padded to its longest sequence, so mixing a short text with a long one wastes most of
+ * the computation on padding. The scheduler tokenizes all pending texts in one batch, sorts them by token count,
+ * splits them into buckets delimited by configurable length boundaries and forms batches per bucket.
+ * Results are always returned in the original order of the input texts.
+ * <p>
+ * The scheduler keeps track of the number of real and padded tokens sent to the model, which can be
+ * used to tune the bucket boundaries through {@link #getPaddingEfficiency()}.
+ */
+public class LengthBucketedBatchScheduler {
+
+    // Default upper bounds (inclusive, in tokens) of the length buckets.
+    private static final int[] DEFAULT_BUCKET_BOUNDARIES = {16, 32, 64, 128, 256, 512};
+
+    // Default maximum number of texts per batch.
+    private static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+    // Encoder used to tokenize and embed the texts.
+    private final OnnxBertEncoder encoder;
+
+    // Sorted upper bounds of the length buckets.
+    private final int[] bucketBoundaries;
+
+    // Maximum number of texts per batch.
+    private final int maxBatchSize;
+
+    // How texts longer than a model window are handled.
+    private final OverflowStrategy overflowStrategy;
+
+    // Number of real (non-padding) tokens sent to the model.
+    private final AtomicLong realTokens = new AtomicLong();
+
+    // Number of tokens sent to the model including padding.
+    private final AtomicLong paddedTokens = new AtomicLong();
+
+    /**
+     * Constructs a LengthBucketedBatchScheduler with the default bucket boundaries and batch size.
+     *
+     * @param encoder The encoder used to tokenize and embed the texts.
+     */
+    public LengthBucketedBatchScheduler(OnnxBertEncoder encoder) {
+        this(encoder, DEFAULT_BUCKET_BOUNDARIES, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a LengthBucketedBatchScheduler with custom bucket boundaries and batch size.
+     *
+     * @param encoder          The encoder used to tokenize and embed the texts.
+     * @param bucketBoundaries Upper bounds (inclusive, in tokens) of the length buckets. Longer texts go to a final bucket.
+     * @param maxBatchSize     Maximum number of texts per batch.
+     */
+    public LengthBucketedBatchScheduler(OnnxBertEncoder encoder, int[] bucketBoundaries, int maxBatchSize) {
+        this(encoder, bucketBoundaries, maxBatchSize, OverflowStrategy.PARTITION);
+    }
+
+    /**
+     * Constructs a LengthBucketedBatchScheduler with the default bucket boundaries and batch size that handles
+     * texts longer than a model window with the given strategy.
+     *
+     * @param encoder          The encoder used to tokenize and embed the texts.
+     * @param overflowStrategy How to handle texts longer than a model window.
+     */
+    public LengthBucketedBatchScheduler(OnnxBertEncoder encoder, OverflowStrategy overflowStrategy) {
+        this(encoder, DEFAULT_BUCKET_BOUNDARIES, DEFAULT_MAX_BATCH_SIZE, overflowStrategy);
+    }
+
+    /**
+     * Constructs a LengthBucketedBatchScheduler with custom bucket boundaries, batch size and overflow strategy.
+     *
+     * @param encoder          The encoder used to tokenize and embed the texts.
+     * @param bucketBoundaries Upper bounds (inclusive, in tokens) of the length buckets. Longer texts go to a final bucket.
+     * @param maxBatchSize     Maximum number of texts per batch.
+     * @param overflowStrategy How to handle texts longer than a model window.
+     */
+    public LengthBucketedBatchScheduler(OnnxBertEncoder encoder, int[] bucketBoundaries, int maxBatchSize,
+                                        OverflowStrategy overflowStrategy) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size must be positive");
+        }
+        this.encoder = Objects.requireNonNull(encoder, "Encoder cannot be null");
+        this.bucketBoundaries = Arrays.stream(bucketBoundaries).sorted().toArray();
+        this.maxBatchSize = maxBatchSize;
+        this.overflowStrategy = Objects.requireNonNull(overflowStrategy, "Overflow strategy cannot be null");
+    }
+
+    /**
+     * Generates embeddings for the given texts, batching texts of similar length together.
+     *
+     * @param texts The input texts to process.
+     * @return A list of EmbeddingAndTokenCount objects, in the same order as the input texts.
+     */
+    public List<OnnxBertEncoder.EmbeddingAndTokenCount> embedAll(List<String> texts) {
+        OnnxBertEncoder.EmbeddingAndTokenCount[] results = new OnnxBertEncoder.EmbeddingAndTokenCount[texts.size()];
+        List<Pending> pending = new ArrayList<>();
+
+        List<TokenizedText> encodings = encoder.encodeTexts(texts, overflowStrategy);
+        for (int i = 0; i < encodings.size(); i++) {
+            TokenizedText encoding = encodings.get(i);
+            if (OnnxBertEncoder.fitsSingleWindow(encoding)) {
+                pending.add(new Pending(i, encoding));
+            } else {
+                results[i] = encoder.embedLong(encoding);
+            }
+        }
+
+        pending.sort(Comparator.comparingInt(Pending::length));
+
+        List<Pending> batch = new ArrayList<>();
+        int currentBucket = -1;
+        for (Pending item : pending) {
+            int bucket = bucketOf(item.length());
+            if (!batch.isEmpty() && (bucket != currentBucket || batch.size() == maxBatchSize)) {
+                run(batch, results);
+                batch.clear();
+            }
+            currentBucket = bucket;
+            batch.add(item);
+        }
+        if (!batch.isEmpty()) {
+            run(batch, results);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Returns the ratio of real tokens to padded tokens sent to the model since creation or the last reset.
+     * A value of 1.0 means no computation was wasted on padding.
+     *
+     * @return The padding efficiency, or 1.0 if nothing has been batched yet.
+     */
+    public double getPaddingEfficiency() {
+        long padded = paddedTokens.get();
+        return padded == 0 ? 1.0 : (double) realTokens.get() / padded;
+    }
+
+    /**
+     * Returns the number of real (non-padding) tokens sent to the model.
+     *
+     * @return The number of real tokens.
+     */
+    public long getRealTokens() {
+        return realTokens.get();
+    }
+
+    /**
+     * Returns the number of tokens sent to the model, including padding.
+     *
+     * @return The number of padded tokens.
+     */
+    public long getPaddedTokens() {
+        return paddedTokens.get();
+    }
+
+    /**
+     * Resets the padding metrics.
+     */
+    public void resetMetrics() {
+        realTokens.set(0);
+        paddedTokens.set(0);
+    }
+
+    // Embeds one batch and stores the results at the original positions of its texts.
+    private void run(List<Pending> batch, OnnxBertEncoder.EmbeddingAndTokenCount[] results) {
+        List<TokenizedText> encodings = new ArrayList<>(batch.size());
+        int maxLength = 0;
+        long real = 0;
+        for (Pending item : batch) {
+            encodings.add(item.encoding());
+            maxLength = Math.max(maxLength, item.length());
+            real += item.length();
+        }
+
+        List<OnnxBertEncoder.EmbeddingAndTokenCount> embeddings = encoder.embedEncoded(encodings);
+        for (int i = 0; i < batch.size(); i++) {
+            results[batch.get(i).index()] = embeddings.get(i);
+        }
+
+        realTokens.addAndGet(real);
+        paddedTokens.addAndGet((long) maxLength * batch.size());
+    }
+
+    // Returns the index of the bucket a sequence of the given length belongs to.
+    private int bucketOf(int length) {
+        for (int i = 0; i < bucketBoundaries.length; i++) {
+            if (length <= bucketBoundaries[i]) {
+                return i;
+            }
+        }
+        return bucketBoundaries.length;
+    }
+
+    // A text waiting to be batched, with its position in the input list.
+    private record Pending(int index, TokenizedText encoding) {
+        int length() {
+            return encoding.length();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package io.github.franklinruiz.encoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MicroBatchCoalescer turns concurrent single-text embedding requests into batched inference calls.
+ * Each submitted text is queued; a single collector thread gathers queued texts until either the maximum
+ * batch size is reached or the maximum wait has elapsed since the first text of the batch arrived, and hands
+ * the batch to a dispatcher thread, which embeds it through a {@link LengthBucketedBatchScheduler} and
+ * completes every caller's future.
+ * <p>
+ * This trades a bounded amount of latency (at most the maximum wait while traffic is light) for the
+ * throughput of batched inference under load. Several dispatchers let a new batch be embedded while the
+ * previous one is still running; the collector only starts a batch once a dispatcher is free, so texts
+ * arriving while every dispatcher is busy join the next batch instead of being embedded one by one.
+ * <p>
+ * The coalescer keeps track of the number of requests and batches it has dispatched, which together with
+ * the configured limits can be used to tune it through {@link #getAverageBatchSize()}.
+ */
+public class MicroBatchCoalescer implements AutoCloseable {
+
+    // Scheduler used to embed the collected batches.
+    private final LengthBucketedBatchScheduler scheduler;
+
+    // Maximum number of texts per batch.
+    private final int maxBatchSize;
+
+    // Maximum time a batch waits for more texts after its first text arrived.
+    private final Duration maxWait;
+
+    // Texts waiting to be dispatched.
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    // Thread collecting the queued texts into batches.
+    private final Thread collector;
+
+    // Threads embedding the collected batches.
+    private final ExecutorService dispatchers;
+
+    // Dispatchers free to embed a batch; the collector takes one before collecting the next batch.
+    private final Semaphore idleDispatchers;
+
+    // Number of texts dispatched to the model.
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // Number of batches dispatched to the model.
+    private final AtomicLong batchCount = new AtomicLong();
+
+    // Number of batches dispatched because they reached the maximum batch size.
+    private final AtomicLong fullBatchCount = new AtomicLong();
+
+    // Number of texts of the largest batch dispatched.
+    private final AtomicInteger largestBatchSize = new AtomicInteger();
+
+    // Set once the coalescer is closed; no new texts are accepted afterwards.
+    private volatile boolean closed;
+
+    /**
+     * Constructs a MicroBatchCoalescer and starts its collector and dispatcher threads.
+     *
+     * @param scheduler    The scheduler used to embed the collected batches.
+     * @param maxBatchSize Maximum number of texts per batch.
+     * @param maxWait      Maximum time a batch waits for more texts after its first text arrived.
+     * @param dispatchers  Number of batches that can be collected and embedded in parallel.
+     */
+    public MicroBatchCoalescer(LengthBucketedBatchScheduler scheduler, int maxBatchSize, Duration maxWait, int dispatchers) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size must be positive");
+        }
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Max wait must not be negative");
+        }
+        if (dispatchers <= 0) {
+            throw new IllegalArgumentException("Number of dispatchers must be positive");
+        }
+        this.scheduler = Objects.requireNonNull(scheduler, "Scheduler cannot be null");
+        this.maxBatchSize = maxBatchSize;
+        this.maxWait = maxWait;
+
+        this.idleDispatchers = new Semaphore(dispatchers);
+        AtomicInteger dispatcherCount = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(dispatchers, runnable -> {
+            Thread thread = new Thread(runnable, "minilm-coalescer-" + dispatcherCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.collector = new Thread(this::collectLoop, "minilm-coalescer-collector");
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    /**
+     * Queues a text to be embedded in the next batch.
+     *
+     * @param text The input text to process.
+     * @return A future completed with the embedding of the text, or exceptionally if its batch fails.
+     * @throws IllegalStateException If the coalescer has been closed.
+     */
+    public CompletableFuture<OnnxBertEncoder.EmbeddingAndTokenCount> submit(String text) {
+        if (closed) {
+            throw new IllegalStateException("Coalescer is closed");
+        }
+        Request request = new Request(text, new CompletableFuture<>());
+        queue.add(request);
+        if (closed && queue.remove(request)) {
+            // Closed concurrently: nobody will dispatch this request anymore
+            request.future().completeExceptionally(new IllegalStateException("Coalescer is closed"));
+        }
+        return request.future();
+    }
+
+    /**
+     * Returns the maximum number of texts per batch.
+     *
+     * @return The maximum batch size.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the maximum time a batch waits for more texts after its first text arrived.
+     *
+     * @return The maximum wait.
+     */
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Returns the number of texts waiting to be dispatched.
+     *
+     * @return The current queue length.
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of texts dispatched to the model since creation or the last reset.
+     *
+     * @return The number of dispatched texts.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of batches dispatched to the model since creation or the last reset.
+     *
+     * @return The number of dispatched batches.
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Returns the number of batches dispatched because they reached the maximum batch size rather than the maximum wait.
+     *
+     * @return The number of full batches.
+     */
+    public long getFullBatchCount() {
+        return fullBatchCount.get();
+    }
+
+    /**
+     * Returns the number of texts of the largest batch dispatched since creation or the last reset.
+     *
+     * @return The largest batch size, or 0 if nothing has been dispatched yet.
+     */
+    public int getLargestBatchSize() {
+        return largestBatchSize.get();
+    }
+
+    /**
+     * Returns the average number of texts per dispatched batch.
+     *
+     * @return The average batch size, or 0.0 if nothing has been dispatched yet.
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0.0 : (double) requestCount.get() / batches;
+    }
+
+    /**
+     * Resets the request and batch metrics.
+     */
+    public void resetMetrics() {
+        requestCount.set(0);
+        batchCount.set(0);
+        fullBatchCount.set(0);
+        largestBatchSize.set(0);
+    }
+
+    /**
+     * Stops the collector and dispatcher threads once the batches being embedded complete.
+     * Texts still waiting in the queue are completed exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        collector.interrupt();
+        dispatchers.shutdown();
+
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending);
+    }
+
+    // Collects batches and hands them to the dispatchers until the coalescer is closed.
+    private void collectLoop() {
+        while (!closed) {
+            List<Request> batch = new ArrayList<>(maxBatchSize);
+            try {
+                // Waiting for a free dispatcher lets the queue build up into a larger batch under load
+                idleDispatchers.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                collect(batch);
+                dispatchers.execute(() -> {
+                    try {
+                        dispatch(batch);
+                    } finally {
+                        idleDispatchers.release();
+                    }
+                });
+            } catch (InterruptedException | RejectedExecutionException e) {
+                idleDispatchers.release();
+                fail(batch);
+                return;
+            }
+        }
+    }
+
+    private static void fail(List<Request> batch) {
+        batch.forEach(request -> request.future().completeExceptionally(new IllegalStateException("Coalescer is closed")));
+    }
+
+    // Waits for a first text, then adds texts to the batch until it is full or the maximum wait has elapsed.
+    private void collect(List<Request> batch) throws InterruptedException {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        while (batch.size() < maxBatchSize) {
+            // Take whatever is already queued without waiting
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // Embeds one batch and completes the futures of its texts.
+    private void dispatch(List<Request> batch) {
+        List<String> texts = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            texts.add(request.text());
+        }
+
+        requestCount.addAndGet(batch.size());
+        batchCount.incrementAndGet();
+        largestBatchSize.accumulateAndGet(batch.size(), Math::max);
+        if (batch.size() == maxBatchSize) {
+            fullBatchCount.incrementAndGet();
+        }
+
+        try {
+            List<OnnxBertEncoder.EmbeddingAndTokenCount> embeddings = scheduler.embedAll(texts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(embeddings.get(i));
+            }
+        } catch (Throwable e) {
+            // Errors too, so that no caller waits forever for a batch that will never complete
+            batch.forEach(request -> request.future().completeExceptionally(e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    // A queued text with the future of its caller.
+    private record Request(String text, CompletableFuture<OnnxBertEncoder.EmbeddingAndTokenCount> future) {
+    }
+}
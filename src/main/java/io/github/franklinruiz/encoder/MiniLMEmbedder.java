@@ -2,43 +2,122 @@ package io.github.franklinruiz.encoder;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * MiniLMEmbedder is a utility class for generating embeddings using the all-MiniLM-L6-v2 model.
  * This class integrates with an ONNX-based encoder to process text and generate high-dimensional embeddings.
+ * Instances are thread-safe and can be shared: concurrent calls run inference in parallel on a shared session.
+ * Embedders using the same model and configuration share a single encoder through the {@link ModelRegistry};
+ * {@link #close()} releases it, freeing its native memory once no other embedder uses it.
+ * <p>
+ * The static factories cover the common cases; {@link #builder()} gives access to every option:
+ * <pre>{@code
+ * MiniLMEmbedder embedder = MiniLMEmbedder.builder()
+ *         .modelVariant(ModelVariant.INT8)
+ *         .encoderConfig(EncoderConfig.builder().intraOpNumThreads(2).build())
+ *         .asyncExecutor(executor)
+ *         .build();
+ * }</pre>
  */
-public class MiniLMEmbedder {
+public class MiniLMEmbedder implements AutoCloseable {
 
-    // Default paths to the model and tokenizer files located in the resources directory.
-    private static final String DEFAULT_MODEL_PATH = "all-minilm-l6-v2.onnx";
+    // Default path to the tokenizer file located in the resources directory, shared by all model variants.
     private static final String DEFAULT_TOKENIZER_PATH = "all-minilm-l6-v2-tokenizer.json";
 
-    // Simple LRU cache capacity for memoizing embeddings by normalized text.
-    private static final int CACHE_CAPACITY = 512;
+    // Default number of embeddings memoized by normalized text.
+    private static final int DEFAULT_CACHE_CAPACITY = 512;
+
+    // Runs of whitespace collapsed by the text normalization, compiled once instead of on every call.
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // LRU cache capacity for memoizing token counts by normalized text; entries are small, so more of them are kept.
+    private static final int TOKEN_COUNT_CACHE_CAPACITY = 4096;
 
     // Instance of the ONNX-based encoder used for generating embeddings.
     private final OnnxBertEncoder encoder;
 
-    // Cache map: normalized text -> embedding (double[])
-    private final Map<String, double[]> cache;
+    // Lease on the encoder shared through the model registry, or null if the encoder is owned by this embedder.
+    private final ModelRegistry.Lease lease;
+
+    // Scheduler that groups texts of similar length into the same batch for batched embedding.
+    private final LengthBucketedBatchScheduler batchScheduler;
+
+    // Thread-safe cache: normalized text -> embedding (float[])
+    private final EmbeddingCache cache;
+
+    // Thread-safe cache: normalized text -> token count
+    private final TokenCountCache tokenCountCache;
+
+    // Embeddings being computed after a cache miss, by normalized text, shared by concurrent requests for the same text.
+    private final ConcurrentMap<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    // Number of requests that joined an embedding already being computed instead of running their own inference.
+    private final LongAdder deduplicatedRequests = new LongAdder();
+
+    // Executor running the asynchronous embedding calls.
+    private final Executor asyncExecutor;
+
+    // Whether the asynchronous executor was created by this embedder and must be shut down with it.
+    private final boolean ownsAsyncExecutor;
+
+    // Coalescer batching concurrent single-text requests, or null if micro-batching is disabled.
+    private final MicroBatchCoalescer coalescer;
+
+    // How texts longer than a model window are handled.
+    private final OverflowStrategy overflowStrategy;
+
+    // Set once the embedder is closed.
+    private volatile boolean closed;
 
     /**
-     * Constructs a MiniLMEmbedder using the specified model and tokenizer input streams.
+     * Constructs a MiniLMEmbedder around the specified encoder.
      *
-     * @param modelStream     InputStream pointing to the ONNX model file.
-     * @param tokenizerStream InputStream pointing to the tokenizer configuration file.
+     * @param encoder The ONNX-based encoder used for generating embeddings.
+     * @param lease   The lease on the shared encoder, or null if the encoder is owned by this embedder.
+     * @param builder The builder holding the remaining settings.
      */
-    private MiniLMEmbedder(InputStream modelStream, InputStream tokenizerStream) {
-        this.encoder = new OnnxBertEncoder(modelStream, tokenizerStream, OnnxBertEncoder.PoolingMode.MEAN);
-        this.cache = new LinkedHashMap<String, double[]>(CACHE_CAPACITY, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
-                return size() > CACHE_CAPACITY;
-            }
-        };
+    private MiniLMEmbedder(OnnxBertEncoder encoder, ModelRegistry.Lease lease, Builder builder) {
+        this.encoder = encoder;
+        this.lease = lease;
+        this.overflowStrategy = builder.overflowStrategy;
+        this.batchScheduler = new LengthBucketedBatchScheduler(this.encoder, this.overflowStrategy);
+        this.cache = new EmbeddingCache(builder.cacheCapacity, builder.cacheMaxBytes, builder.cacheKeyStrategy);
+        this.tokenCountCache = new TokenCountCache(TOKEN_COUNT_CACHE_CAPACITY);
+        this.asyncExecutor = builder.asyncExecutor != null
+                ? builder.asyncExecutor
+                : defaultAsyncExecutor(builder.encoderConfig.getMaxConcurrentInferences());
+        this.ownsAsyncExecutor = builder.asyncExecutor == null;
+        this.coalescer = builder.microBatchSize > 0
+                ? new MicroBatchCoalescer(this.batchScheduler, builder.microBatchSize, builder.microBatchMaxWait,
+                builder.encoderConfig.getMaxConcurrentInferences())
+                : null;
+    }
+
+    /**
+     * Creates a new builder for a MiniLMEmbedder.
+     *
+     * @return A new Builder using the default model, tokenizer and settings.
+     */
+    public static Builder builder() {
+        return new Builder();
     }
 
     /**
@@ -47,40 +126,632 @@ public class MiniLMEmbedder {
      * @return A new instance of MiniLMEmbedder initialized with the default model and tokenizer.
      */
     public static MiniLMEmbedder getDefaultModel() {
+        return getDefaultModel(EncoderConfig.defaults());
+    }
+
+    /**
+     * Creates a default instance of the MiniLMEmbedder that allows at most the given number of inference calls
+     * to run in parallel on its shared model session.
+     *
+     * @param maxConcurrentInferences Maximum number of inference calls allowed to run in parallel.
+     * @return A new instance of MiniLMEmbedder initialized with the default model and tokenizer.
+     */
+    public static MiniLMEmbedder getDefaultModel(int maxConcurrentInferences) {
+        return getDefaultModel(EncoderConfig.builder().maxConcurrentInferences(maxConcurrentInferences).build());
+    }
+
+    /**
+     * Creates a default instance of the MiniLMEmbedder whose model session is created with the given configuration,
+     * e.g. to tune the ONNX Runtime thread pools or the graph optimization level.
+     *
+     * @param config EncoderConfig with the session options and inference parallelism to use.
+     * @return A new instance of MiniLMEmbedder initialized with the default model and tokenizer.
+     */
+    public static MiniLMEmbedder getDefaultModel(EncoderConfig config) {
+        return getModel(ModelVariant.FP32, config);
+    }
+
+    /**
+     * Creates an instance of the MiniLMEmbedder using the given variant of the model.
+     *
+     * @param variant The model variant, e.g. {@link ModelVariant#INT8} for the quantized model.
+     * @return A new instance of MiniLMEmbedder initialized with the given model variant and the default tokenizer.
+     */
+    public static MiniLMEmbedder getModel(ModelVariant variant) {
+        return getModel(variant, EncoderConfig.defaults());
+    }
+
+    /**
+     * Creates an instance of the MiniLMEmbedder using the given variant of the model and runtime configuration.
+     *
+     * @param variant The model variant, e.g. {@link ModelVariant#INT8} for the quantized model.
+     * @param config  EncoderConfig with the session options and inference parallelism to use.
+     * @return A new instance of MiniLMEmbedder initialized with the given model variant and the default tokenizer.
+     * @throws IllegalArgumentException If the model variant is not available.
+     */
+    public static MiniLMEmbedder getModel(ModelVariant variant, EncoderConfig config) {
+        return builder().modelVariant(variant).encoderConfig(config).build();
+    }
+
+    /**
+     * Creates a MiniLMEmbedder using model and tokenizer files located in the given paths.
+     *
+     * @param modelPath     Path to the ONNX model file.
+     * @param tokenizerPath Path to the tokenizer configuration file.
+     * @param config        EncoderConfig with the session options and inference parallelism to use.
+     * @return A new instance of MiniLMEmbedder initialized with the given model and tokenizer.
+     */
+    public static MiniLMEmbedder fromPath(Path modelPath, Path tokenizerPath, EncoderConfig config) {
+        return builder().modelPath(modelPath, tokenizerPath).encoderConfig(config).build();
+    }
+
+    // Identifies the model, tokenizer and configuration selected in the builder, for sharing through the model registry.
+    private static ModelKey modelKey(Builder builder) {
+        if (builder.modelPath != null) {
+            return new ModelKey(builder.modelPath.toAbsolutePath().normalize().toString(),
+                    builder.tokenizerPath.toAbsolutePath().normalize().toString(), builder.encoderConfig);
+        }
+        return new ModelKey("classpath:" + builder.modelVariant.getResourceName(),
+                "classpath:" + DEFAULT_TOKENIZER_PATH, builder.encoderConfig);
+    }
+
+    // Creates the encoder for the model selected in the builder.
+    private static OnnxBertEncoder createEncoder(Builder builder) {
+        if (builder.modelPath != null) {
+            return new OnnxBertEncoder(builder.modelPath, builder.tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN, builder.encoderConfig);
+        }
+
+        Path modelPath;
+        Path tokenizerPath;
+        try {
+            // Loading from files lets ONNX Runtime read the model without copying it into the Java heap
+            modelPath = ModelResources.locate(builder.modelVariant.getResourceName());
+            tokenizerPath = ModelResources.extract(DEFAULT_TOKENIZER_PATH);
+        } catch (IOException e) {
+            // The cache directory is not usable (e.g. a read-only file system), so load the model from the classpath
+            return loadFromClasspath(builder.modelVariant, builder.encoderConfig);
+        }
+        return new OnnxBertEncoder(modelPath, tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN, builder.encoderConfig);
+    }
+
+    // Loads the model and the default tokenizer by streaming them from the classpath.
+    private static OnnxBertEncoder loadFromClasspath(ModelVariant variant, EncoderConfig config) {
         ClassLoader classLoader = MiniLMEmbedder.class.getClassLoader();
 
         try (
-                InputStream modelStream = classLoader.getResourceAsStream(DEFAULT_MODEL_PATH);
+                InputStream modelStream = classLoader.getResourceAsStream(variant.getResourceName());
                 InputStream tokenizerStream = classLoader.getResourceAsStream(DEFAULT_TOKENIZER_PATH)
         ) {
             if (modelStream == null || tokenizerStream == null) {
                 throw new IllegalArgumentException("Model or tokenizer files not found in resources!");
             }
 
-            return new MiniLMEmbedder(modelStream, tokenizerStream);
+            return new OnnxBertEncoder(modelStream, tokenizerStream, OnnxBertEncoder.PoolingMode.MEAN, config);
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
+    // Creates the executor used when none is configured: virtual threads when the runtime supports them
+    // (Java 21+), so that callers waiting for an inference permit do not hold platform threads, and otherwise
+    // a pool of daemon threads sized to the number of inference calls that can run in parallel.
+    private static Executor defaultAsyncExecutor(int parallelism) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "minilm-embedder-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
     /**
      * Generates an embedding for the given input text.
-     * Applies minimal normalization and uses an internal LRU cache for efficiency.
+     * Applies minimal normalization and uses an internal cache for efficiency; concurrent calls for a text that
+     * misses the cache share a single inference instead of each embedding it.
+     * With micro-batching enabled, the text is embedded together with texts submitted concurrently by other threads.
+     * The model produces float vectors, which this method widens to doubles; see {@link #embedFloat(String)}.
      *
      * @param text The input text to be processed.
      * @return A double array representing the embedding of the input text.
      */
-    public synchronized double[] embed(String text) {
+    public double[] embed(String text) {
+        return convertToDoubleArray(embedFloat(text));
+    }
+
+    /**
+     * Generates an embedding for the given input text, optionally bypassing the embedding cache, e.g. for one-shot
+     * bulk jobs whose texts are never requested again and would only evict the embeddings worth keeping.
+     *
+     * @param text     The input text to be processed.
+     * @param useCache false to neither look up nor cache the embedding.
+     * @return A double array representing the embedding of the input text.
+     */
+    public double[] embed(String text, boolean useCache) {
+        return convertToDoubleArray(embedFloat(text, useCache));
+    }
+
+    /**
+     * Generates an embedding for the given input text as the float vector produced by the model.
+     * It holds the same values as {@link #embed(String)} in half the memory, and lets similarity computations
+     * process twice as many elements per SIMD instruction.
+     *
+     * @param text The input text to be processed.
+     * @return A float array representing the embedding of the input text.
+     */
+    public float[] embedFloat(String text) {
+        return embedFloat(text, true);
+    }
+
+    /**
+     * Generates an embedding for the given input text as the float vector produced by the model, optionally
+     * bypassing the embedding cache as in {@link #embed(String, boolean)}.
+     *
+     * @param text     The input text to be processed.
+     * @param useCache false to neither look up nor cache the embedding.
+     * @return A float array representing the embedding of the input text.
+     */
+    public float[] embedFloat(String text, boolean useCache) {
+        String normalized = normalizeForEmbedding(text);
+        if (!useCache) {
+            return coalescer != null
+                    ? join(embedCoalesced(normalized, false))
+                    : encoder.embed(normalized, overflowStrategy).embedding;
+        }
+        float[] cached = cache.get(normalized);
+        if (cached != null) {
+            // The cache hands out copies to avoid external mutation of the cached values
+            return cached;
+        }
+        // Without micro-batching the inference runs on the calling thread
+        return join(embedSingleFlight(normalized, () -> coalescer != null
+                ? embedCoalesced(normalized, true)
+                : CompletableFuture.completedFuture(embedAndCache(normalized))));
+    }
+
+    /**
+     * Generates the embedding of the given input text into a caller-provided array, for hot paths where the
+     * allocation rate drives garbage collection pauses. Cached embeddings are copied into the destination, and
+     * cache misses run on the calling thread through {@link OnnxBertEncoder#embedInto(String, float[])}, which reuses
+     * pooled model input and output buffers; micro-batching is bypassed. Like {@link #embed(String)}, a miss for
+     * a text that is already being embedded waits for that inference instead of running its own.
+     *
+     * @param text        The input text to be processed.
+     * @param destination The array receiving the embedding, of {@link OnnxBertEncoder#getDimensions()} elements.
+     * @throws IllegalArgumentException If the destination does not have the size of the embeddings.
+     */
+    public void embedInto(String text, float[] destination) {
+        if (destination.length != encoder.getDimensions()) {
+            throw new IllegalArgumentException("Destination must have the size of the embeddings: " + encoder.getDimensions());
+        }
+        String normalized = normalizeForEmbedding(text);
+        if (cache.getInto(normalized, destination)) {
+            return;
+        }
+        if (!cache.isEnabled()) {
+            // Without a cache there is no miss to share, so the inference runs straight into the destination
+            encoder.embedInto(normalized, destination, overflowStrategy);
+            return;
+        }
+        CompletableFuture<float[]> flight = new CompletableFuture<>();
+        CompletableFuture<float[]> current = inFlight.putIfAbsent(normalized, flight);
+        if (current != null) {
+            // Shared results are never modified, so they are copied without one of our own
+            deduplicatedRequests.increment();
+            float[] shared = join(current);
+            System.arraycopy(shared, 0, destination, 0, destination.length);
+            return;
+        }
+        float[] shared;
+        try {
+            // As in embedSingleFlight, the previous computation for this text may have completed since the miss
+            if (cache.peekInto(normalized, destination)) {
+                shared = copyOf(destination);
+            } else {
+                encoder.embedInto(normalized, destination, overflowStrategy);
+                // The destination belongs to the caller, so requests waiting for this one read the cached copy
+                shared = cache.put(normalized, destination);
+                if (shared == null) {
+                    shared = copyOf(destination);
+                }
+            }
+        } catch (Throwable e) {
+            inFlight.remove(normalized, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(normalized, flight);
+        flight.complete(shared);
+    }
+
+    /**
+     * Generates embeddings for a list of input texts.
+     * Cached texts are served from the internal cache; the remaining texts are grouped by token length
+     * and embedded with batched inference, which is considerably faster than calling {@link #embed(String)} in a loop.
+     *
+     * @param texts The input texts to be processed.
+     * @return A list of double arrays representing the embeddings, in the same order as the input texts.
+     */
+    public List<double[]> embedBatch(List<String> texts) {
+        return embedBatch(texts, true);
+    }
+
+    /**
+     * Generates embeddings for a list of input texts, optionally bypassing the embedding cache, e.g. to index a
+     * corpus once without evicting the cached query embeddings. Texts are batched as in {@link #embedBatch(List)}.
+     *
+     * @param texts    The input texts to be processed.
+     * @param useCache false to neither look up nor cache the embeddings.
+     * @return A list of double arrays representing the embeddings, in the same order as the input texts.
+     */
+    public List<double[]> embedBatch(List<String> texts, boolean useCache) {
+        List<float[]> embeddings = embedBatchFloat(texts, useCache);
+        double[][] results = new double[embeddings.size()][];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = convertToDoubleArray(embeddings.get(i));
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Generates embeddings for a list of input texts as the float vectors produced by the model.
+     * Texts are batched as in {@link #embedBatch(List)}.
+     *
+     * @param texts The input texts to be processed.
+     * @return A list of float arrays representing the embeddings, in the same order as the input texts.
+     */
+    public List<float[]> embedBatchFloat(List<String> texts) {
+        return embedBatchFloat(texts, true);
+    }
+
+    /**
+     * Generates embeddings for a list of input texts as the float vectors produced by the model, optionally
+     * bypassing the embedding cache as in {@link #embedBatch(List, boolean)}.
+     *
+     * @param texts    The input texts to be processed.
+     * @param useCache false to neither look up nor cache the embeddings.
+     * @return A list of float arrays representing the embeddings, in the same order as the input texts.
+     */
+    public List<float[]> embedBatchFloat(List<String> texts, boolean useCache) {
+        float[][] results = new float[texts.size()][];
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            String normalized = normalizeForEmbedding(texts.get(i));
+            float[] cached = useCache ? cache.get(normalized) : null;
+            if (cached != null) {
+                results[i] = cached;
+            } else {
+                missing.add(i);
+                missingTexts.add(normalized);
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<OnnxBertEncoder.EmbeddingAndTokenCount> embeddings = batchScheduler.embedAll(missingTexts);
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] result = embeddings.get(i).embedding;
+                if (useCache) {
+                    cache.put(missingTexts.get(i), result);
+                }
+                results[missing.get(i)] = result;
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Generates an embedding for the given input text without blocking the caller.
+     * Cached texts complete immediately; otherwise the inference runs on the configured asynchronous executor,
+     * or is queued for the next micro-batch if micro-batching is enabled. Concurrent requests for a text that is
+     * already being embedded share that inference, whether they are asynchronous or not.
+     *
+     * @param text The input text to be processed.
+     * @return A future completed with the embedding of the input text, or exceptionally if the embedding fails.
+     */
+    public CompletableFuture<double[]> embedAsync(String text) {
+        return embedFloatAsync(text).thenApply(this::convertToDoubleArray);
+    }
+
+    /**
+     * Generates an embedding for the given input text as the float vector produced by the model, without blocking
+     * the caller. The embedding is computed as in {@link #embedAsync(String)}.
+     *
+     * @param text The input text to be processed.
+     * @return A future completed with the embedding of the input text, or exceptionally if the embedding fails.
+     */
+    public CompletableFuture<float[]> embedFloatAsync(String text) {
+        String normalized = normalizeForEmbedding(text);
+        float[] cached = cache.get(normalized);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return embedSingleFlight(normalized, () -> coalescer != null
+                ? embedCoalesced(normalized, true)
+                : CompletableFuture.supplyAsync(() -> embedAndCache(normalized), asyncExecutor));
+    }
+
+    /**
+     * Generates embeddings for a list of input texts without blocking the caller.
+     * The texts are embedded with {@link #embedBatch(List)} on the configured asynchronous executor.
+     *
+     * @param texts The input texts to be processed.
+     * @return A future completed with the embeddings, in the same order as the input texts.
+     */
+    public CompletableFuture<List<double[]>> embedBatchAsync(List<String> texts) {
+        return CompletableFuture.supplyAsync(() -> embedBatch(texts), asyncExecutor);
+    }
+
+    /**
+     * Counts the number of tokens the model sees for the given text, including its special tokens.
+     * Only the tokenizer runs, and counts are memoized in an internal LRU cache separate from the embeddings.
+     *
+     * @param text The input text to tokenize.
+     * @return The number of tokens in the input text.
+     */
+    public int countTokens(String text) {
+        String normalized = normalize(text);
+        Integer cached = tokenCountCache.get(normalized);
+        if (cached != null) {
+            return cached;
+        }
+        int count = encoder.countTokens(normalized);
+        tokenCountCache.put(normalized, count);
+        return count;
+    }
+
+    /**
+     * Counts the number of tokens of the given text up to a limit, e.g. to check a text against a token budget.
+     * Tokenization stops early once the limit is reached, which makes checking long documents cheap.
+     *
+     * @param text      The input text to tokenize.
+     * @param maxTokens The limit at which counting stops.
+     * @return The number of tokens in the input text, or {@code maxTokens} if the text has at least that many tokens.
+     * @throws IllegalArgumentException If {@code maxTokens} is not positive.
+     */
+    public int countTokens(String text, int maxTokens) {
+        // Checked before the cache lookup, so that hits and misses reject the same arguments
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("Max tokens must be positive");
+        }
         String normalized = normalize(text);
-        double[] cached = cache.get(normalized);
+        Integer cached = tokenCountCache.get(normalized);
         if (cached != null) {
-            // Return a copy to avoid external mutation while still benefiting from caching the compute step
-            return Arrays.copyOf(cached, cached.length);
+            return Math.min(cached, maxTokens);
         }
-        OnnxBertEncoder.EmbeddingAndTokenCount embedding = encoder.embed(normalized);
-        double[] result = convertToDoubleArray(embedding.embedding);
+        int count = encoder.countTokens(normalized, maxTokens);
+        if (count < maxTokens) {
+            // Only complete counts are cached; a count that hit the limit is a lower bound
+            tokenCountCache.put(normalized, count);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the number of tokens of each of the given texts.
+     * Cached counts are reused and the remaining texts are tokenized together in a single call.
+     *
+     * @param texts The input texts to tokenize.
+     * @return The number of tokens of each text, in the same order as the input texts.
+     */
+    public int[] countTokensBatch(List<String> texts) {
+        int[] counts = new int[texts.size()];
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            String normalized = normalize(texts.get(i));
+            Integer cached = tokenCountCache.get(normalized);
+            if (cached != null) {
+                counts[i] = cached;
+            } else {
+                missing.add(i);
+                missingTexts.add(normalized);
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            int[] missingCounts = encoder.countTokensBatch(missingTexts);
+            for (int i = 0; i < missingCounts.length; i++) {
+                tokenCountCache.put(missingTexts.get(i), missingCounts[i]);
+                counts[missing.get(i)] = missingCounts[i];
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the encoder generating the embeddings, which may be shared with other embedders using the same model.
+     *
+     * @return The ONNX-based encoder.
+     */
+    public OnnxBertEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Warms up the encoder by embedding representative texts of several lengths, alone and in batches, so that
+     * the first real calls are not slowed down by the runtime allocating its memory arenas and the JIT compiling
+     * the tokenization and pooling code. The embedding cache is not used, so no warm-up text is cached.
+     */
+    public void warmUp() {
+        encoder.warmUp();
+    }
+
+    /**
+     * Checks whether the embedder is ready to serve requests at full speed, for example to report the readiness
+     * of a service on its health endpoint.
+     *
+     * @return true if the encoder has been warmed up and the embedder is not closed.
+     */
+    public boolean isReady() {
+        return !closed && encoder.isReady();
+    }
+
+    /**
+     * Releases the resources of this embedder: stops micro-batching, shuts down the default asynchronous executor
+     * and releases the encoder, which is closed once no other embedder shares it. Closing twice has no effect.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        if (ownsAsyncExecutor && asyncExecutor instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+        if (lease != null) {
+            lease.close();
+        } else {
+            encoder.close();
+        }
+    }
+
+    /**
+     * Returns the coalescer batching concurrent single-text requests, e.g. to read its metrics.
+     *
+     * @return The micro-batch coalescer, or null if micro-batching is disabled.
+     */
+    public MicroBatchCoalescer getMicroBatchCoalescer() {
+        return coalescer;
+    }
+
+    // Queues a normalized text for the next micro-batch and optionally caches its embedding once it is available.
+    private CompletableFuture<float[]> embedCoalesced(String normalized, boolean useCache) {
+        return coalescer.submit(normalized).thenApply(embedding -> {
+            if (useCache) {
+                cache.put(normalized, embedding.embedding);
+            }
+            return embedding.embedding;
+        });
+    }
+
+    /**
+     * Returns the number of embedding requests that missed the cache while the same text was already being embedded,
+     * and shared that computation instead of running their own inference.
+     *
+     * @return The number of deduplicated requests.
+     */
+    public long getDeduplicatedRequestCount() {
+        return deduplicatedRequests.sum();
+    }
+
+    // Embeds a normalized text that missed the cache. Concurrent requests for the same text share a single
+    // computation, started by the first of them, and each receives its own copy of the result. Each request gets
+    // a dependent future, so cancelling it does not cancel the computation the other requests are waiting for,
+    // while a failed computation fails every request that joined it.
+    private CompletableFuture<float[]> embedSingleFlight(String normalized, Supplier<CompletableFuture<float[]>> computation) {
+        CompletableFuture<float[]> flight = new CompletableFuture<>();
+        CompletableFuture<float[]> current = inFlight.putIfAbsent(normalized, flight);
+        if (current != null) {
+            deduplicatedRequests.increment();
+            return current.thenApply(MiniLMEmbedder::copyOf);
+        }
+        CompletableFuture<float[]> computed;
+        try {
+            // The previous computation for this text may have completed between the cache miss and now;
+            // the caller already counted the miss, so the cache is checked without counting again
+            float[] cached = cache.peek(normalized);
+            computed = cached != null ? CompletableFuture.completedFuture(cached) : computation.get();
+        } catch (Throwable e) {
+            // Errors too must complete the flight, or later requests for the text would wait for it forever
+            computed = CompletableFuture.failedFuture(e);
+        }
+        computed.whenComplete((embedding, failure) -> {
+            // Later requests are served by the cache, or start a new computation if this one failed
+            inFlight.remove(normalized, flight);
+            if (failure != null) {
+                flight.completeExceptionally(failure);
+            } else {
+                flight.complete(embedding);
+            }
+        });
+        return flight.thenApply(MiniLMEmbedder::copyOf);
+    }
+
+    private static float[] copyOf(float[] embedding) {
+        return Arrays.copyOf(embedding, embedding.length);
+    }
+
+    // Embeds a normalized text on the calling thread and caches its embedding.
+    private float[] embedAndCache(String normalized) {
+        float[] result = encoder.embed(normalized, overflowStrategy).embedding;
         cache.put(normalized, result);
-        return Arrays.copyOf(result, result.length);
+        return result;
+    }
+
+    // Waits for an embedding, rethrowing the unchecked exception or error it failed with.
+    private static float[] join(CompletableFuture<float[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the number of embedding requests served from the cache, e.g. to size the cache from its hit rate.
+     * Requests bypassing the cache are not counted.
+     *
+     * @return The number of cache hits.
+     */
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Returns the number of embedding requests that missed the cache. Requests bypassing the cache are not counted.
+     *
+     * @return The number of cache misses.
+     */
+    public long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Returns the number of cached embeddings.
+     *
+     * @return The number of entries in the embedding cache.
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Returns an estimate of the memory retained by the embedding cache, counting the embeddings, their keys and
+     * the cache's own bookkeeping.
+     *
+     * @return The estimated size of the embedding cache in bytes.
+     */
+    public long getCacheBytes() {
+        return cache.estimatedBytes();
+    }
+
+    /**
+     * Returns the ratio of real tokens to padded tokens sent to the model by {@link #embedBatch(List)}.
+     * Values close to 1.0 mean little computation is wasted on padding.
+     *
+     * @return The padding efficiency of batched embedding, or 1.0 if nothing has been batched yet.
+     */
+    public double getPaddingEfficiency() {
+        return batchScheduler.getPaddingEfficiency();
+    }
+
+    // Normalizes a text to embed. Truncating strategies cut long texts first, so that normalization cost is bounded
+    // as well; the cut text is also the cache key, which is sound because the rest of the text is never embedded.
+    private String normalizeForEmbedding(String input) {
+        return input == null ? "" : normalize(OnnxBertEncoder.truncateCharacters(input, overflowStrategy));
     }
 
     // Minimal, language-safe normalization: trim and collapse multiple whitespace into single spaces.
@@ -88,7 +759,7 @@ public class MiniLMEmbedder {
         if (input == null) return "";
         String trimmed = input.trim();
         // Collapse consecutive whitespace to a single space without touching diacritics or casing explicitly
-        return trimmed.replaceAll("\\s+", " ");
+        return WHITESPACE.matcher(trimmed).replaceAll(" ");
     }
 
     /**
@@ -104,4 +775,218 @@ public class MiniLMEmbedder {
         }
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Builder for {@link MiniLMEmbedder}.
+     */
+    public static class Builder {
+        private ModelVariant modelVariant = ModelVariant.FP32;
+        private Path modelPath;
+        private Path tokenizerPath;
+        private EncoderConfig encoderConfig = EncoderConfig.defaults();
+        private Executor asyncExecutor;
+        private int microBatchSize;
+        private Duration microBatchMaxWait;
+        private boolean sharedModel = true;
+        private boolean warmUp;
+        private OverflowStrategy overflowStrategy = OverflowStrategy.PARTITION;
+        private int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+        private long cacheMaxBytes = Long.MAX_VALUE;
+        private CacheKeyStrategy cacheKeyStrategy = CacheKeyStrategy.TEXT;
+
+        private Builder() {
+        }
+
+        /**
+         * Selects the variant of the bundled model to use. Defaults to {@link ModelVariant#FP32}.
+         *
+         * @param modelVariant The model variant.
+         * @return This builder.
+         */
+        public Builder modelVariant(ModelVariant modelVariant) {
+            this.modelVariant = Objects.requireNonNull(modelVariant, "Model variant cannot be null");
+            return this;
+        }
+
+        /**
+         * Uses model and tokenizer files located in the given paths instead of a bundled model variant.
+         *
+         * @param modelPath     Path to the ONNX model file.
+         * @param tokenizerPath Path to the tokenizer configuration file.
+         * @return This builder.
+         */
+        public Builder modelPath(Path modelPath, Path tokenizerPath) {
+            this.modelPath = Objects.requireNonNull(modelPath, "Model path cannot be null");
+            this.tokenizerPath = Objects.requireNonNull(tokenizerPath, "Tokenizer path cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the session options and inference parallelism of the encoder.
+         *
+         * @param encoderConfig The encoder configuration.
+         * @return This builder.
+         */
+        public Builder encoderConfig(EncoderConfig encoderConfig) {
+            this.encoderConfig = Objects.requireNonNull(encoderConfig, "Encoder config cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the executor running {@link #embedAsync(String)} and {@link #embedBatchAsync(List)}.
+         * By default virtual threads are used on Java 21+, and a pool of daemon threads sized to
+         * {@link EncoderConfig#getMaxConcurrentInferences()} on older runtimes.
+         *
+         * @param asyncExecutor The executor for asynchronous embedding calls.
+         * @return This builder.
+         */
+        public Builder asyncExecutor(Executor asyncExecutor) {
+            this.asyncExecutor = Objects.requireNonNull(asyncExecutor, "Async executor cannot be null");
+            return this;
+        }
+
+        /**
+         * Enables micro-batching: concurrent {@link #embed(String)} and {@link #embedAsync(String)} calls that miss
+         * the cache are collected for up to {@code maxWait} or {@code maxBatchSize} texts, whichever comes first,
+         * and embedded in a single batch. Disabled by default.
+         *
+         * @param maxBatchSize Maximum number of texts per batch.
+         * @param maxWait      Maximum time a batch waits for more texts after its first text arrived.
+         * @return This builder.
+         */
+        public Builder microBatching(int maxBatchSize, Duration maxWait) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Max batch size must be positive");
+            }
+            if (maxWait == null || maxWait.isNegative()) {
+                throw new IllegalArgumentException("Max wait must not be negative");
+            }
+            this.microBatchSize = maxBatchSize;
+            this.microBatchMaxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Sets whether the encoder is shared with other embedders using the same model and configuration through the
+         * {@link ModelRegistry}, which is the default. An unshared encoder is loaded for this embedder only.
+         *
+         * @param sharedModel true to share the encoder.
+         * @return This builder.
+         */
+        public Builder sharedModel(boolean sharedModel) {
+            this.sharedModel = sharedModel;
+            return this;
+        }
+
+        /**
+         * Sets how texts longer than a model window are handled. The default, {@link OverflowStrategy#PARTITION},
+         * embeds every token of long texts; the truncating strategies bound the cost of each call, e.g. for search
+         * queries. Embedders with different strategies can share the same model.
+         *
+         * @param overflowStrategy How to handle texts longer than a model window.
+         * @return This builder.
+         */
+        public Builder overflowStrategy(OverflowStrategy overflowStrategy) {
+            this.overflowStrategy = Objects.requireNonNull(overflowStrategy, "Overflow strategy cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of embeddings kept in the cache, which defaults to 512. A capacity of 0 disables
+         * the cache, e.g. on ingestion nodes that embed every text once.
+         *
+         * @param cacheCapacity The maximum number of cached embeddings.
+         * @return This builder.
+         */
+        public Builder cacheCapacity(int cacheCapacity) {
+            if (cacheCapacity < 0) {
+                throw new IllegalArgumentException("Cache capacity must not be negative");
+            }
+            this.cacheCapacity = cacheCapacity;
+            return this;
+        }
+
+        /**
+         * Bounds the estimated memory retained by the cache, embeddings and keys included, which is unbounded by
+         * default. Entries are evicted as soon as either this bound or the {@link #cacheCapacity(int)} is exceeded,
+         * so a large byte budget usually comes with a large capacity. A budget of 0 disables the cache.
+         *
+         * @param cacheMaxBytes The maximum estimated size of the cache in bytes.
+         * @return This builder.
+         */
+        public Builder cacheMaxBytes(long cacheMaxBytes) {
+            if (cacheMaxBytes < 0) {
+                throw new IllegalArgumentException("Cache max bytes must not be negative");
+            }
+            this.cacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets how cached embeddings are keyed. The default, {@link CacheKeyStrategy#TEXT}, retains the normalized
+         * texts; {@link CacheKeyStrategy#CONTENT_HASH} keeps a 128-bit hash instead, so that long texts do not take
+         * more cache memory than their embeddings.
+         *
+         * @param cacheKeyStrategy How cached embeddings are keyed.
+         * @return This builder.
+         */
+        public Builder cacheKeyStrategy(CacheKeyStrategy cacheKeyStrategy) {
+            this.cacheKeyStrategy = Objects.requireNonNull(cacheKeyStrategy, "Cache key strategy cannot be null");
+            return this;
+        }
+
+        /**
+         * Sets whether {@link #build()} warms up the encoder before returning the embedder, which is disabled by default.
+         * A shared encoder that is already warmed up is not warmed up again.
+         *
+         * @param warmUp true to warm up the encoder when building the embedder.
+         * @return This builder.
+         * @see MiniLMEmbedder#warmUp()
+         */
+        public Builder warmUp(boolean warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * Builds the MiniLMEmbedder, loading the model and the tokenizer unless a shared encoder is already loaded.
+         *
+         * @return A new MiniLMEmbedder.
+         * @throws IllegalArgumentException If the model or the tokenizer cannot be loaded.
+         */
+        public MiniLMEmbedder build() {
+            MiniLMEmbedder embedder;
+            if (sharedModel) {
+                ModelRegistry.Lease lease = ModelRegistry.acquire(modelKey(this), () -> createEncoder(this));
+                try {
+                    embedder = new MiniLMEmbedder(lease.getEncoder(), lease, this);
+                } catch (RuntimeException | Error e) {
+                    // Release the encoder, which would otherwise stay in the registry for good
+                    lease.close();
+                    throw e;
+                }
+            } else {
+                OnnxBertEncoder encoder = createEncoder(this);
+                try {
+                    embedder = new MiniLMEmbedder(encoder, null, this);
+                } catch (RuntimeException | Error e) {
+                    encoder.close();
+                    throw e;
+                }
+            }
+            if (warmUp && !embedder.isReady()) {
+                try {
+                    embedder.warmUp();
+                } catch (RuntimeException | Error e) {
+                    embedder.close();
+                    throw e;
+                }
+            }
+            return embedder;
+        }
+    }
+
+    // Identity of a model in the registry: the model and tokenizer locations and the encoder configuration.
+    private record ModelKey(String model, String tokenizer, EncoderConfig config) {
+    }
+}
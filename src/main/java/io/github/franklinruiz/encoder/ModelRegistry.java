@@ -0,0 +1,137 @@
+package io.github.franklinruiz.encoder;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * ModelRegistry shares encoders across the whole process, so that every embedder or store using the same model
+ * holds the same ONNX Runtime session and tokenizer instead of loading its own copy of the model.
+ * <p>
+ * Encoders are reference counted: {@link #acquire(Object, Supplier)} loads the encoder on first use and hands out
+ * a {@link Lease}; the encoder is closed, freeing its native memory, when the last lease is closed.
+ */
+public final class ModelRegistry {
+
+    // Shared encoders by model identity.
+    private static final ConcurrentMap<Object, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private ModelRegistry() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Returns a lease on the encoder registered under the given key, loading it with the loader if it is not loaded.
+     * The key identifies the model, the tokenizer and the encoder configuration, and must implement
+     * {@code equals} and {@code hashCode}; callers using the same key share the same encoder.
+     *
+     * @param key    The identity of the model.
+     * @param loader Loads the encoder when no encoder is registered under the key.
+     * @return A lease on the shared encoder, which must be closed once the encoder is no longer needed.
+     */
+    public static Lease acquire(Object key, Supplier<OnnxBertEncoder> loader) {
+        Objects.requireNonNull(key, "Key cannot be null");
+        Objects.requireNonNull(loader, "Loader cannot be null");
+        // Only the entry is registered inside compute; the model is loaded outside of it, so that a slow load does
+        // not block the map, and concurrent callers with the same key wait for the single load of the first one
+        Entry[] created = new Entry[1];
+        Entry entry = ENTRIES.compute(key, (k, current) -> {
+            // An encoder closed directly by its user, or that failed to load, is replaced instead of being handed out
+            Entry result = current != null && !current.isStale() ? current : (created[0] = new Entry());
+            result.references++;
+            return result;
+        });
+        if (entry == created[0]) {
+            try {
+                entry.encoder.complete(loader.get());
+            } catch (RuntimeException | Error e) {
+                ENTRIES.remove(key, entry);
+                entry.encoder.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return new Lease(key, entry, entry.encoder.join());
+        } catch (CompletionException e) {
+            // The first caller failed to load the model and already reported it
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Returns the number of open leases on the encoder registered under the given key.
+     *
+     * @param key The identity of the model.
+     * @return The number of open leases, or 0 if no encoder is registered under the key.
+     */
+    public static int getReferenceCount(Object key) {
+        Entry entry = ENTRIES.get(key);
+        return entry == null ? 0 : entry.references;
+    }
+
+    // Releases one reference to the encoder of the entry, closing it when no reference is left.
+    private static void release(Object key, Entry released, OnnxBertEncoder encoder) {
+        boolean[] last = new boolean[1];
+        ENTRIES.computeIfPresent(key, (k, entry) -> {
+            if (entry != released) {
+                return entry;
+            }
+            last[0] = --entry.references == 0;
+            return last[0] ? null : entry;
+        });
+        if (last[0]) {
+            encoder.close();
+        }
+    }
+
+    // A shared encoder, completed once loaded, and its number of open leases, which is only updated inside the
+    // map's compute functions.
+    private static final class Entry {
+        private final CompletableFuture<OnnxBertEncoder> encoder = new CompletableFuture<>();
+        private volatile int references;
+
+        // Whether the encoder failed to load or has been closed, in which case the entry must be replaced.
+        boolean isStale() {
+            return encoder.isCompletedExceptionally() || (encoder.isDone() && encoder.join().isClosed());
+        }
+    }
+
+    /**
+     * A reference to a shared encoder. Closing the lease releases the reference; it is safe to close it more than once.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Object key;
+        private final Entry entry;
+        private final OnnxBertEncoder encoder;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(Object key, Entry entry, OnnxBertEncoder encoder) {
+            this.key = key;
+            this.entry = entry;
+            this.encoder = encoder;
+        }
+
+        /**
+         * Returns the shared encoder.
+         *
+         * @return The encoder held by this lease.
+         */
+        public OnnxBertEncoder getEncoder() {
+            return encoder;
+        }
+
+        /**
+         * Releases the reference to the shared encoder, closing it if this was the last open lease.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(key, entry, encoder);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.franklinruiz.encoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Utility class for locating model files on disk.
+ * ONNX Runtime loads a model fastest, and without copying it into the Java heap, when it reads it from a file.
+ * Models bundled as classpath resources are therefore extracted once to a cache directory and loaded from there
+ * on every later start. Each extracted file is stored in a subdirectory named after the CRC-32 checksum and size
+ * of the resource, so a library upgrade shipping a different model or tokenizer extracts it anew instead of
+ * reusing the stale copy.
+ * <p>
+ * The cache directory defaults to {@code ~/.cache/minilm-lite} and can be changed with the
+ * {@value #CACHE_DIR_PROPERTY} system property.
+ */
+public class ModelResources {
+
+    /**
+     * System property that overrides the directory where bundled model files are extracted.
+     */
+    public static final String CACHE_DIR_PROPERTY = "minilm.cache.dir";
+
+    private ModelResources() {
+        throw new IllegalStateException("ModelResources class");
+    }
+
+    /**
+     * Returns a file holding the given classpath resource.
+     * Resources that already live on the file system are returned as they are; resources packaged in a jar
+     * are extracted to the cache directory the first time and reused as long as their content is the same.
+     *
+     * @param resource The name of the classpath resource.
+     * @return The path of a file with the content of the resource.
+     * @throws IOException              If the resource cannot be extracted.
+     * @throws IllegalArgumentException If the resource does not exist.
+     */
+    public static Path extract(String resource) throws IOException {
+        URL url = ModelResources.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new IllegalArgumentException("Resource not found: " + resource);
+        }
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        URLConnection connection = url.openConnection();
+        Path target = getCacheDirectory().resolve(contentKey(connection)).resolve(resource);
+        if (Files.isRegularFile(target)) {
+            return target;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try (InputStream in = url.openStream()) {
+            Files.copy(in, temporary, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return target;
+    }
+
+    // Identifies the content of a resource by its CRC-32 checksum and size. For jar entries both are read from the
+    // jar's central directory, so checking an extracted file does not require reading the resource.
+    private static String contentKey(URLConnection connection) throws IOException {
+        if (connection instanceof JarURLConnection jarConnection) {
+            JarEntry entry = jarConnection.getJarEntry();
+            if (entry != null && entry.getCrc() >= 0 && entry.getSize() >= 0) {
+                return String.format("%08x-%d", entry.getCrc(), entry.getSize());
+            }
+        }
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = new CheckedInputStream(connection.getInputStream(), crc)) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                size += read;
+            }
+        }
+        return String.format("%08x-%d", crc.getValue(), size);
+    }
+
+    /**
+     * Returns a file holding the given model, looking first for a classpath resource and then for a file
+     * with the same name in the cache directory, where tools such as {@code scripts/quantize_model.py} write
+     * models that are not bundled with the library.
+     *
+     * @param resource The name of the model file.
+     * @return The path of the model file.
+     * @throws IOException              If the resource cannot be extracted.
+     * @throws IllegalArgumentException If the model can be found neither on the classpath nor in the cache directory.
+     */
+    public static Path locate(String resource) throws IOException {
+        if (ModelResources.class.getClassLoader().getResource(resource) != null) {
+            return extract(resource);
+        }
+        Path cached = getCacheDirectory().resolve(resource);
+        if (Files.isRegularFile(cached)) {
+            return cached;
+        }
+        throw new IllegalArgumentException("Model " + resource + " found neither in resources nor in " + getCacheDirectory());
+    }
+
+    /**
+     * Memory-maps the given file as a read-only direct buffer that can be passed to
+     * {@link OnnxBertEncoder#OnnxBertEncoder(java.nio.ByteBuffer, InputStream, OnnxBertEncoder.PoolingMode, EncoderConfig)}.
+     *
+     * @param file The file to map.
+     * @return A read-only buffer backed by the file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Returns the directory where bundled model files are extracted.
+     *
+     * @return The cache directory.
+     */
+    public static Path getCacheDirectory() {
+        String configured = System.getProperty(CACHE_DIR_PROPERTY);
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.home"), ".cache", "minilm-lite");
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.franklinruiz.encoder;
+
+/**
+ * Enum to define the precision variants of the all-MiniLM-L6-v2 model.
+ * <p>
+ * {@link #FP32} is the original model bundled with the library. {@link #INT8} is a dynamically quantized copy
+ * whose MatMul weights are stored as 8-bit integers: it is about four times smaller and usually two to three times
+ * faster on CPU, at the cost of a small drift in the embeddings. The INT8 model is not bundled; it is produced by
+ * {@code scripts/quantize_model.py} and looked up on the classpath first and then in
+ * {@link ModelResources#getCacheDirectory()}.
+ * <p>
+ * {@link #POOLED} is the FP32 model exported by {@code scripts/export_pooled_model.py} with mean pooling and
+ * L2 normalization fused into the graph, so it returns one {@code [batchSize, 384]} sentence embedding
+ * instead of the hidden state of every token. It is looked up in the same places as the INT8 model.
+ */
+public enum ModelVariant {
+    FP32("all-minilm-l6-v2.onnx"),
+    INT8("all-minilm-l6-v2-int8.onnx"),
+    POOLED("all-minilm-l6-v2-pooled.onnx");
+
+    private final String resourceName;
+
+    ModelVariant(String resourceName) {
+        this.resourceName = resourceName;
+    }
+
+    /**
+     * Returns the file name of the model, used both as classpath resource and as file in the cache directory.
+     *
+     * @return The model file name.
+     */
+    public String getResourceName() {
+        return resourceName;
+    }
+}
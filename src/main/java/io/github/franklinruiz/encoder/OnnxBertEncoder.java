@@ -1,27 +1,89 @@
 package io.github.franklinruiz.encoder;
 
-import ai.djl.huggingface.tokenizers.Encoding;
-import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import io.github.franklinruiz.utils.VectorKernels;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * OnnxBertEncoder is a class that processes text to generate embeddings using a pre-trained ONNX-based BERT model.
  * It supports tokenization, embedding generation, and pooling strategies for text processing.
+ * Instances are thread-safe: a single session is shared and a configurable number of inference calls run on it in parallel.
+ * <p>
+ * Models whose graph already pools and normalizes the embedding (a {@code [batchSize, dimensions]} output, preferably
+ * named {@code sentence_embedding}) are detected automatically; their output is used as is and the pooling mode is ignored.
+ * <p>
+ * Encoders hold native memory for the model session and the tokenizer, which is freed by {@link #close()}.
+ * Use {@link ModelRegistry} to share one encoder between several components.
  */
-public class OnnxBertEncoder {
+public class OnnxBertEncoder implements AutoCloseable {
+
+    /**
+     * Default maximum number of inference calls allowed to run in parallel on the shared session.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_INFERENCES = Runtime.getRuntime().availableProcessors();
 
     // Maximum sequence length allowed for input tokens.
     private static final int MAX_SEQUENCE_LENGTH = 510;
 
+    // Maximum number of texts sent to the model in a single batched inference call.
+    private static final int MAX_BATCH_SIZE = 32;
+
+    // Average number of characters per token of English text, used to size the prefixes tokenized by countTokens(String, int).
+    private static final int CHARS_PER_TOKEN_ESTIMATE = 4;
+
+    // Options of the native tokenizer. The encoder never lets the tokenizer pad or truncate: batches are padded
+    // to their longest sequence when the input tensors are built, and texts longer than a model window are split
+    // into several windows instead of silently dropping the tokens beyond the tokenizer limit.
+    private static final Map<String, String> TOKENIZER_OPTIONS = Map.of("padding", "false", "truncation", "false");
+
+    // Upper bound on the characters per token assumed when texts are cut before tokenization by the truncating
+    // overflow strategies. Generous for natural language, so that the cut text still fills a model window.
+    private static final int TRUNCATION_CHARS_PER_TOKEN = 8;
+
+    // Maximum number of characters kept by the truncating overflow strategies.
+    private static final int TRUNCATION_MAX_CHARS = MAX_SEQUENCE_LENGTH * TRUNCATION_CHARS_PER_TOKEN;
+
+    // Number of leading tokens kept by TRUNCATE_HEAD_TAIL; the rest of the window holds the trailing tokens.
+    private static final int HEAD_TAIL_HEAD_TOKENS = MAX_SEQUENCE_LENGTH / 4;
+
+    // Distance within which the character cut moves to a whitespace, so that no word is split at the cut.
+    private static final int TRUNCATION_WORD_BOUNDARY_SEARCH = 32;
+
+    // Sequence lengths, in tokens, of the texts embedded by warmUp(), from short queries to a full model window.
+    private static final int[] WARM_UP_LENGTHS = {8, 32, 128, MAX_SEQUENCE_LENGTH + 2};
+
+    // Batch sizes embedded by warmUp() at each sequence length.
+    private static final int[] WARM_UP_BATCH_SIZES = {1, 4, 16};
+
+    // Largest number of tokens in a single warm-up batch, which skips the slowest combinations of length and batch size.
+    private static final int WARM_UP_MAX_BATCH_TOKENS = 2048;
+
+    // Words of the warm-up texts, each of which is a single token of the vocabulary.
+    private static final String[] WARM_UP_WORDS = {"the", "quick", "brown", "fox", "jumps", "over", "the", "lazy", "dog"};
+
+    // Name of the output produced by graphs that pool and normalize the sentence embedding themselves.
+    private static final String SENTENCE_EMBEDDING_OUTPUT = "sentence_embedding";
+
     // ONNX Runtime environment for managing the model session.
     private final OrtEnvironment environment;
 
@@ -31,12 +93,45 @@ public class OnnxBertEncoder {
     // Set of expected input names for the ONNX model.
     private final Set<String> expectedInputs;
 
+    // Name of the model output holding the embeddings.
+    private final String outputName;
+
+    // Whether the model output is already a pooled and normalized [batchSize, dimensions] sentence embedding
+    // rather than the [batchSize, sequenceLength, dimensions] hidden states.
+    private final boolean pooledOutput;
+
+    // Size of the embeddings, or -1 if the model does not declare it.
+    private final int dimensions;
+
+    // Input and output buffers reused by the embedInto calls. A set is taken with an inference permit and returned
+    // with it, so that at most one set per permit is ever allocated, whatever the number of calling threads.
+    private final BlockingQueue<InferenceBuffers> idleBuffers;
+
     // Tokenizer for text preprocessing, compatible with the Hugging Face format.
-    private final HuggingFaceTokenizer tokenizer;
+    private final TextTokenizer tokenizer;
+
+    // Lock held for reading by every tokenizer call and for writing when the native tokenizer is freed.
+    private final ReentrantReadWriteLock tokenizerLock = new ReentrantReadWriteLock();
 
     // Pooling mode to determine how embeddings are aggregated.
     private final PoolingMode poolingMode;
 
+    // Permits limiting the number of inference calls running in parallel on the shared session.
+    private final Semaphore inferencePermits;
+
+    // Maximum number of inference calls running in parallel, i.e. the total number of permits.
+    private final int maxConcurrentInferences;
+
+    // Number of inference calls currently running on the session, and the highest number seen at once.
+    private final AtomicInteger runningInferences = new AtomicInteger();
+    private final AtomicInteger peakConcurrentInferences = new AtomicInteger();
+
+    // Set once the encoder is closed; no new inference calls are started afterwards.
+    private volatile boolean closed;
+
+    // Set once warmUp() has completed.
+    private volatile boolean ready;
+
     /**
      * Constructs an OnnxBertEncoder with the specified model, tokenizer, and pooling mode.
      *
@@ -45,11 +140,100 @@ public class OnnxBertEncoder {
      * @param poolingMode PoolingMode to determine the aggregation strategy (e.g., CLS or MEAN).
      */
     public OnnxBertEncoder(InputStream model, InputStream tokenizer, PoolingMode poolingMode) {
+        this(model, tokenizer, poolingMode, DEFAULT_MAX_CONCURRENT_INFERENCES);
+    }
+
+    /**
+     * Constructs an OnnxBertEncoder with the specified model, tokenizer, pooling mode and inference parallelism.
+     * ONNX Runtime sessions are thread-safe, so concurrent calls share a single session; the limit only bounds
+     * how many of them run at the same time to avoid oversubscribing the CPU.
+     *
+     * @param model                   InputStream representing the ONNX model file.
+     * @param tokenizer               InputStream representing the tokenizer configuration file.
+     * @param poolingMode             PoolingMode to determine the aggregation strategy (e.g., CLS or MEAN).
+     * @param maxConcurrentInferences Maximum number of inference calls allowed to run in parallel.
+     */
+    public OnnxBertEncoder(InputStream model, InputStream tokenizer, PoolingMode poolingMode, int maxConcurrentInferences) {
+        this(model, tokenizer, poolingMode, EncoderConfig.builder().maxConcurrentInferences(maxConcurrentInferences).build());
+    }
+
+    /**
+     * Constructs an OnnxBertEncoder with the specified model, tokenizer, pooling mode and runtime configuration.
+     *
+     * @param model       InputStream representing the ONNX model file.
+     * @param tokenizer   InputStream representing the tokenizer configuration file.
+     * @param poolingMode PoolingMode to determine the aggregation strategy (e.g., CLS or MEAN).
+     * @param config      EncoderConfig with the session options and inference parallelism to use.
+     */
+    public OnnxBertEncoder(InputStream model, InputStream tokenizer, PoolingMode poolingMode, EncoderConfig config) {
+        this((environment, options) -> environment.createSession(loadModel(model), options),
+                implementation -> loadTokenizer(tokenizer, implementation),
+                poolingMode, config);
+    }
+
+    /**
+     * Constructs an OnnxBertEncoder that loads the model and tokenizer directly from files.
+     * ONNX Runtime reads the model from disk itself, so the model is never copied into the Java heap.
+     * When {@link EncoderConfig#getOptimizedModelDirectory()} is set, the optimized graph is persisted there
+     * and reused on later starts.
+     *
+     * @param model       Path to the ONNX model file.
+     * @param tokenizer   Path to the tokenizer configuration file.
+     * @param poolingMode PoolingMode to determine the aggregation strategy (e.g., CLS or MEAN).
+     * @param config      EncoderConfig with the session options and inference parallelism to use.
+     */
+    public OnnxBertEncoder(Path model, Path tokenizer, PoolingMode poolingMode, EncoderConfig config) {
+        this((environment, options) -> {
+                    if (config.getOptimizedModelDirectory() == null) {
+                        return environment.createSession(model.toString(), options);
+                    }
+                    try {
+                        return OptimizedModelCache.createSession(environment, model, options, config);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e);
+                    }
+                },
+                implementation -> {
+                    try (InputStream stream = Files.newInputStream(tokenizer)) {
+                        return loadTokenizer(stream, implementation);
+                    }
+                },
+                poolingMode, config);
+    }
+
+    /**
+     * Constructs an OnnxBertEncoder from a model held in a direct buffer, such as the one returned by
+     * {@link ModelResources#map(Path)}. The buffer is read in place, without copying it into the Java heap.
+     *
+     * @param model       Direct ByteBuffer holding the ONNX model.
+     * @param tokenizer   InputStream representing the tokenizer configuration file.
+     * @param poolingMode PoolingMode to determine the aggregation strategy (e.g., CLS or MEAN).
+     * @param config      EncoderConfig with the session options and inference parallelism to use.
+     */
+    public OnnxBertEncoder(ByteBuffer model, InputStream tokenizer, PoolingMode poolingMode, EncoderConfig config) {
+        this((environment, options) -> environment.createSession(model, options),
+                implementation -> loadTokenizer(tokenizer, implementation),
+                poolingMode, config);
+    }
+
+    // Shared constructor: creates the session and the tokenizer from their respective sources.
+    private OnnxBertEncoder(SessionSource model, TokenizerSource tokenizer, PoolingMode poolingMode, EncoderConfig config) {
+        Objects.requireNonNull(config, "Encoder config cannot be null");
+        this.maxConcurrentInferences = config.getMaxConcurrentInferences();
+        this.inferencePermits = new Semaphore(this.maxConcurrentInferences);
         try {
             this.environment = OrtEnvironment.getEnvironment();
-            this.session = this.environment.createSession(this.loadModel(model));
+            this.session = this.createSession(model, config);
             this.expectedInputs = this.session.getInputNames();
-            this.tokenizer = HuggingFaceTokenizer.newInstance(tokenizer, Collections.singletonMap("padding", "false"));
+            this.outputName = this.session.getOutputNames().contains(SENTENCE_EMBEDDING_OUTPUT)
+                    ? SENTENCE_EMBEDDING_OUTPUT
+                    : this.session.getOutputNames().iterator().next();
+            TensorInfo outputInfo = (TensorInfo) this.session.getOutputInfo().get(this.outputName).getInfo();
+            long[] outputShape = outputInfo.getShape();
+            this.pooledOutput = outputShape.length == 2;
+            this.dimensions = outputShape[outputShape.length - 1] > 0 ? (int) outputShape[outputShape.length - 1] : -1;
+            this.idleBuffers = new ArrayBlockingQueue<>(this.maxConcurrentInferences);
+            this.tokenizer = tokenizer.load(config.getTokenizerImplementation());
             this.poolingMode = Objects.requireNonNull(poolingMode, "Pooling mode cannot be null");
         } catch (Exception e) {
             throw new IllegalArgumentException(e);
@@ -63,42 +247,523 @@ public class OnnxBertEncoder {
      * @return An EmbeddingAndTokenCount object containing the embedding vector and token count.
      */
     public EmbeddingAndTokenCount embed(String text) {
-        List<String> tokens = this.tokenizer.tokenize(text);
-        List<List<String>> partitions = partition(tokens, MAX_SEQUENCE_LENGTH);
-        List<float[]> embeddings = new ArrayList<>();
-
-        for (List<String> partition : partitions) {
-            try (OrtSession.Result result = this.encode(partition)) {
-                float[] embedding = this.toEmbedding(result);
-                embeddings.add(embedding);
-            } catch (OrtException e) {
-                throw new IllegalArgumentException(e);
+        return this.embedLong(this.encodeText(text));
+    }
+
+    /**
+     * Generates an embedding for the given input text, handling texts longer than a model window with the given
+     * strategy. With a truncating strategy the text is cut before tokenization and embedded in a single inference,
+     * and the token count is the number of tokens the model saw.
+     *
+     * @param text     The input text to process.
+     * @param strategy How to handle texts longer than a model window.
+     * @return An EmbeddingAndTokenCount object containing the embedding vector and token count.
+     */
+    public EmbeddingAndTokenCount embed(String text, OverflowStrategy strategy) {
+        return this.embedLong(this.encodeText(text, strategy));
+    }
+
+    /**
+     * Generates the embedding of the given text into a caller-provided array, for hot paths where the allocation
+     * rate matters. The model inputs and output live in direct buffers sized for a full model window, which ONNX Runtime
+     * reads and writes in place, and pooling accumulates into the destination. The encoder keeps at most one set of
+     * buffers per concurrent inference, taken with the inference permit and freed when the encoder is closed.
+     * Apart from tokenization and a few small runtime handles, a call allocates nothing.
+     * Texts longer than a model window are embedded as in {@link #embed(String)} and copied into the destination.
+     *
+     * @param text        The input text to process.
+     * @param destination The array receiving the normalized embedding, of {@link #getDimensions()} elements.
+     * @return The number of tokens of the input text.
+     * @throws IllegalArgumentException If the destination does not have the size of the embeddings.
+     */
+    public int embedInto(String text, float[] destination) {
+        return this.embedInto(text, destination, OverflowStrategy.PARTITION);
+    }
+
+    /**
+     * Generates the embedding of the given text into a caller-provided array as in {@link #embedInto(String, float[])},
+     * handling texts longer than a model window with the given strategy. With a truncating strategy no call
+     * allocates more than for a single window.
+     *
+     * @param text        The input text to process.
+     * @param destination The array receiving the normalized embedding, of {@link #getDimensions()} elements.
+     * @param strategy    How to handle texts longer than a model window.
+     * @return The number of tokens the model saw.
+     * @throws IllegalArgumentException If the destination does not have the size of the embeddings.
+     */
+    public int embedInto(String text, float[] destination, OverflowStrategy strategy) {
+        if (this.dimensions < 0 || destination.length != this.dimensions) {
+            throw new IllegalArgumentException("Destination must have the size of the embeddings: " + this.dimensions);
+        }
+        TokenizedText encoding = this.encodeText(text, strategy);
+        if (!fitsSingleWindow(encoding)) {
+            float[] embedding = this.embedLong(encoding).embedding;
+            System.arraycopy(embedding, 0, destination, 0, embedding.length);
+            return encoding.length();
+        }
+
+        int length = encoding.length();
+        this.inferencePermits.acquireUninterruptibly();
+        InferenceBuffers buffers = null;
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Encoder is closed");
+            }
+            buffers = this.idleBuffers.poll();
+            if (buffers == null) {
+                buffers = new InferenceBuffers(this.pooledOutput, this.dimensions);
+            }
+            this.runPinned(buffers, encoding);
+
+            FloatBuffer output = buffers.output;
+            if (this.pooledOutput || this.poolingMode == PoolingMode.CLS) {
+                output.get(0, destination);
+            } else {
+                // Mean pooling, one token row at a time through the row buffer of the set
+                Arrays.fill(destination, 0.0F);
+                for (int i = 0; i < length; i++) {
+                    output.get(i * this.dimensions, buffers.row);
+                    VectorKernels.axpy(1.0F, buffers.row, destination);
+                }
+                VectorKernels.scale(1.0F / length, destination);
+            }
+        } finally {
+            if (buffers != null) {
+                this.idleBuffers.offer(buffers);
+            }
+            this.inferencePermits.release();
+        }
+        normalize(destination);
+        return length;
+    }
+
+    /**
+     * Returns the number of dimensions of the embeddings produced by the model.
+     *
+     * @return The size of the embeddings, or -1 if the model does not declare it.
+     */
+    public int getDimensions() {
+        return this.dimensions;
+    }
+
+    /**
+     * Generates embeddings for a list of input texts using batched inference.
+     * Texts are tokenized together in a single batch tokenization call, padded to the longest sequence of each batch
+     * and sent to the model as a single {@code [batchSize, maxLength]} input, which amortizes the per-call overhead
+     * of the runtime. Texts that do not fit in a single model window are split into windows as in {@link #embed(String)}.
+     *
+     * @param texts The input texts to process.
+     * @return A list of EmbeddingAndTokenCount objects, in the same order as the input texts.
+     */
+    public List<EmbeddingAndTokenCount> embedBatch(List<String> texts) {
+        return this.embedBatch(texts, OverflowStrategy.PARTITION);
+    }
+
+    /**
+     * Generates embeddings for a list of input texts using batched inference, handling texts longer than a model
+     * window with the given strategy. With a truncating strategy every text is embedded as part of a batch.
+     *
+     * @param texts    The input texts to process.
+     * @param strategy How to handle texts longer than a model window.
+     * @return A list of EmbeddingAndTokenCount objects, in the same order as the input texts.
+     */
+    public List<EmbeddingAndTokenCount> embedBatch(List<String> texts, OverflowStrategy strategy) {
+        EmbeddingAndTokenCount[] results = new EmbeddingAndTokenCount[texts.size()];
+        List<Integer> pending = new ArrayList<>();
+        List<TokenizedText> encodings = new ArrayList<>();
+
+        List<TokenizedText> tokenized = this.encodeTexts(texts, strategy);
+        for (int i = 0; i < tokenized.size(); i++) {
+            TokenizedText encoding = tokenized.get(i);
+            if (!fitsSingleWindow(encoding)) {
+                results[i] = this.embedLong(encoding);
+                continue;
+            }
+            pending.add(i);
+            encodings.add(encoding);
+        }
+
+        for (int from = 0; from < encodings.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, encodings.size());
+            List<EmbeddingAndTokenCount> embeddings = this.embedEncoded(encodings.subList(from, to));
+            for (int i = 0; i < embeddings.size(); i++) {
+                results[pending.get(from + i)] = embeddings.get(i);
             }
         }
 
-        List<Integer> weights = partitions.stream().map(List::size).toList();
+        return Arrays.asList(results);
+    }
+
+    // Tokenizes the text once, including the [CLS] and [SEP] special tokens expected by the model.
+    TokenizedText encodeText(String text) {
+        return this.tokenize(() -> this.tokenizer.encode(text));
+    }
+
+    // Tokenizes several texts in one batch tokenization stage, which the native tokenizer runs in parallel.
+    List<TokenizedText> encodeTexts(List<String> texts) {
+        return this.tokenize(() -> this.tokenizer.encodeBatch(texts));
+    }
+
+    // Tokenizes the text, cutting it to a single model window unless the strategy partitions long texts.
+    TokenizedText encodeText(String text, OverflowStrategy strategy) {
+        if (strategy == OverflowStrategy.PARTITION) {
+            return this.encodeText(text);
+        }
+        return truncate(this.encodeText(truncateCharacters(text, strategy)), strategy);
+    }
+
+    // Tokenizes several texts, cutting each to a single model window unless the strategy partitions long texts.
+    List<TokenizedText> encodeTexts(List<String> texts, OverflowStrategy strategy) {
+        if (strategy == OverflowStrategy.PARTITION) {
+            return this.encodeTexts(texts);
+        }
+        List<String> cut = texts.stream().map(text -> truncateCharacters(text, strategy)).toList();
+        return this.encodeTexts(cut).stream().map(encoding -> truncate(encoding, strategy)).toList();
+    }
+
+    // Cuts a text that cannot fit in a model window to the characters the truncating strategy can keep, so that
+    // tokenization cost is bounded. Whitespace runs, which the tokenizer drops, are collapsed to a single space
+    // before the cap is applied, so that texts dominated by whitespace still fill a model window. Cuts avoid
+    // splitting surrogate pairs and, when one is close, words.
+    // Texts already within the bound, including the result of a previous cut, are returned unchanged.
+    static String truncateCharacters(String text, OverflowStrategy strategy) {
+        if (strategy == OverflowStrategy.PARTITION || text.length() <= TRUNCATION_MAX_CHARS) {
+            return text;
+        }
+        // One character more than the bound tells whether the collapsed text fits and where a word ends
+        String head = collapsedPrefix(text, TRUNCATION_MAX_CHARS + 1);
+        if (head.length() <= TRUNCATION_MAX_CHARS) {
+            return head;
+        }
+        if (strategy == OverflowStrategy.TRUNCATE_HEAD) {
+            return head.substring(0, headCut(head, TRUNCATION_MAX_CHARS));
+        }
+        int headChars = HEAD_TAIL_HEAD_TOKENS * TRUNCATION_CHARS_PER_TOKEN;
+        int tailChars = TRUNCATION_MAX_CHARS - headChars - 1;
+        String tail = collapsedSuffix(text, tailChars + 1);
+        return head.substring(0, headCut(head, headChars)) + " " + tail.substring(tailCut(tail, tailChars));
+    }
+
+    // Returns up to maxChars leading characters of the text with every whitespace run collapsed to a single space.
+    private static String collapsedPrefix(String text, int maxChars) {
+        StringBuilder prefix = new StringBuilder(maxChars);
+        for (int i = 0; i < text.length() && prefix.length() < maxChars; i++) {
+            appendCollapsed(prefix, text.charAt(i));
+        }
+        return prefix.toString();
+    }
+
+    // Returns up to maxChars trailing characters of the text with every whitespace run collapsed to a single space.
+    private static String collapsedSuffix(String text, int maxChars) {
+        StringBuilder suffix = new StringBuilder(maxChars);
+        for (int i = text.length() - 1; i >= 0 && suffix.length() < maxChars; i--) {
+            appendCollapsed(suffix, text.charAt(i));
+        }
+        // Reversing keeps surrogate pairs in order
+        return suffix.reverse().toString();
+    }
+
+    private static void appendCollapsed(StringBuilder builder, char c) {
+        if (!Character.isWhitespace(c)) {
+            builder.append(c);
+        } else if (builder.isEmpty() || builder.charAt(builder.length() - 1) != ' ') {
+            builder.append(' ');
+        }
+    }
+
+    // Returns the end of a prefix of at most maxChars characters.
+    private static int headCut(String text, int maxChars) {
+        int end = maxChars;
+        if (Character.isLowSurrogate(text.charAt(end))) {
+            end--;
+        }
+        for (int i = end; i > end - TRUNCATION_WORD_BOUNDARY_SEARCH && i > 0; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    // Returns the start of a suffix of at most maxChars characters.
+    private static int tailCut(String text, int maxChars) {
+        int start = text.length() - maxChars;
+        if (Character.isLowSurrogate(text.charAt(start))) {
+            start++;
+        }
+        for (int i = start; i < start + TRUNCATION_WORD_BOUNDARY_SEARCH && i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return start;
+    }
+
+    // Keeps the tokens of a single model window, framed by the [CLS] and [SEP] tokens of the encoding.
+    private static TokenizedText truncate(TokenizedText encoding, OverflowStrategy strategy) {
+        if (fitsSingleWindow(encoding)) {
+            return encoding;
+        }
+        int content = encoding.length() - 2;
+        int head = strategy == OverflowStrategy.TRUNCATE_HEAD ? MAX_SEQUENCE_LENGTH : HEAD_TAIL_HEAD_TOKENS;
+        int tail = MAX_SEQUENCE_LENGTH - head;
+        return new TokenizedText(
+                keep(encoding.ids(), head, tail, content),
+                keep(encoding.typeIds(), head, tail, content),
+                keep(encoding.wordIds(), head, tail, content));
+    }
+
+    // Keeps [CLS], the first head and the last tail of the content values, and [SEP].
+    private static long[] keep(long[] values, int head, int tail, int content) {
+        long[] kept = new long[head + tail + 2];
+        System.arraycopy(values, 0, kept, 0, head + 1);
+        System.arraycopy(values, content + 1 - tail, kept, head + 1, tail);
+        kept[kept.length - 1] = values[values.length - 1];
+        return kept;
+    }
+
+    // Embeds an encoded text of any length: its content tokens are split into windows that fit the model,
+    // which are embedded in padded batches and averaged, weighted by their number of tokens.
+    EmbeddingAndTokenCount embedLong(TokenizedText encoding) {
+        List<Window> partitions = partition(encoding.wordIds(), MAX_SEQUENCE_LENGTH);
+        if (partitions.isEmpty()) {
+            // An empty text has no content tokens, so it is embedded as its [CLS] and [SEP] tokens, like in a batch
+            return this.embedEncoded(List.of(encoding)).get(0);
+        }
+        List<Sequence> sequences = partitions.stream().map(window -> Sequence.of(encoding, window)).toList();
+        List<float[]> embeddings = new ArrayList<>(sequences.size());
+
+        // All windows of the text are stacked into padded batches instead of running one inference per window
+        for (int from = 0; from < sequences.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, sequences.size());
+            embeddings.addAll(Arrays.asList(this.embedSequences(sequences.subList(from, to))));
+        }
+
+        List<Integer> weights = partitions.stream().map(Window::size).toList();
         float[] embedding = normalize(this.weightedAverage(embeddings, weights));
-        return new EmbeddingAndTokenCount(embedding, tokens.size());
+        return new EmbeddingAndTokenCount(embedding, encoding.length());
+    }
+
+    // Checks whether the encoding fits in a single model window and can therefore be batched.
+    static boolean fitsSingleWindow(TokenizedText encoding) {
+        return encoding.length() <= MAX_SEQUENCE_LENGTH + 2;
+    }
+
+    // Embeds a single batch of encodings, each of which must fit in a single model window.
+    List<EmbeddingAndTokenCount> embedEncoded(List<TokenizedText> encodings) {
+        float[][] embeddings = this.embedSequences(encodings.stream().map(Sequence::of).toList());
+        List<EmbeddingAndTokenCount> results = new ArrayList<>(embeddings.length);
+        for (int i = 0; i < embeddings.length; i++) {
+            results.add(new EmbeddingAndTokenCount(normalize(embeddings[i]), encodings.get(i).length()));
+        }
+        return results;
     }
 
     /**
-     * Counts the number of tokens in the given text after tokenization.
+     * Counts the number of tokens in the given text after tokenization, including the special tokens added by the model.
+     * No inference is run and only the token ids are computed.
      *
      * @param text The input text to tokenize.
      * @return The number of tokens in the input text.
      */
     public int countTokens(String text) {
-        return this.tokenizer.tokenize(text).size();
+        return this.tokenize(() -> this.tokenizer.countTokens(text));
     }
 
-    // Encodes the tokenized input into ONNX model tensors and runs inference.
-    private OrtSession.Result encode(List<String> tokens) throws OrtException {
-        Encoding encoding = this.tokenizer.encode(this.toText(tokens), true, false);
-        long[] inputIds = encoding.getIds();
-        long[] attentionMask = encoding.getAttentionMask();
-        long[] tokenTypeIds = encoding.getTypeIds();
-        long[] shape = new long[]{1L, inputIds.length};
+    /**
+     * Counts the number of tokens in the given text, stopping as soon as the count reaches the given limit.
+     * Growing prefixes of the text, cut at whitespace, are tokenized until one of them reaches the limit,
+     * so checking a long document against a small budget only tokenizes its beginning.
+     *
+     * @param text      The input text to tokenize.
+     * @param maxTokens The limit at which counting stops.
+     * @return The number of tokens in the input text, or {@code maxTokens} if the text has at least that many tokens.
+     */
+    public int countTokens(String text, int maxTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("Max tokens must be positive");
+        }
+        // Start with a prefix that likely holds the limit and double it until it does or covers the whole text
+        int prefixLength = (int) Math.min(text.length(), (long) maxTokens * CHARS_PER_TOKEN_ESTIMATE);
+        while (prefixLength < text.length()) {
+            int cut = text.lastIndexOf(' ', prefixLength);
+            if (cut > 0) {
+                // Whitespace separates pre-tokens, so the tokens of the prefix are a prefix of the tokens of the text
+                int count = countTokens(text.substring(0, cut));
+                if (count >= maxTokens) {
+                    return maxTokens;
+                }
+            }
+            // Widened so that doubling a prefix of a very long text cannot overflow
+            prefixLength = (int) Math.min(text.length(), (long) prefixLength * 2);
+        }
+        return Math.min(countTokens(text), maxTokens);
+    }
+
+    /**
+     * Counts the number of tokens in each of the given texts, tokenizing them in a single call where the tokenizer supports it.
+     *
+     * @param texts The input texts to tokenize.
+     * @return The number of tokens of each text, in the same order as the input texts.
+     */
+    public int[] countTokensBatch(List<String> texts) {
+        return this.tokenize(() -> this.tokenizer.countTokensBatch(texts));
+    }
+
+    /**
+     * Runs representative inputs through the tokenizer and the model so that the first real calls do not pay for
+     * the allocation of the runtime arenas and the compilation of the tokenization and pooling code.
+     * Texts from a few tokens up to a full model window are embedded alone and in batches of several sizes.
+     * Once the warm-up has completed, {@link #isReady()} returns true.
+     */
+    public void warmUp() {
+        for (int length : WARM_UP_LENGTHS) {
+            String text = warmUpText(length);
+            this.countTokens(text);
+            this.embed(text);
+            if (this.dimensions > 0) {
+                this.embedInto(text, new float[this.dimensions]);
+            }
+            for (int batchSize : WARM_UP_BATCH_SIZES) {
+                if (batchSize > 1 && batchSize * length <= WARM_UP_MAX_BATCH_TOKENS) {
+                    this.embedBatch(Collections.nCopies(batchSize, text));
+                }
+            }
+        }
+        this.ready = true;
+    }
+
+    /**
+     * Checks whether the encoder has been warmed up and is not closed, for example to report the readiness
+     * of a service on its health endpoint.
+     *
+     * @return true if {@link #warmUp()} has completed and the encoder is not closed.
+     */
+    public boolean isReady() {
+        return this.ready && !this.closed;
+    }
+
+    // Builds a text of the given number of tokens, including the special tokens.
+    private static String warmUpText(int length) {
+        StringJoiner text = new StringJoiner(" ");
+        for (int i = 0; i < length - 2; i++) {
+            text.add(WARM_UP_WORDS[i % WARM_UP_WORDS.length]);
+        }
+        return text.toString();
+    }
 
+    /**
+     * Closes the model session and the tokenizer, freeing their native memory. Inference and tokenization calls that
+     * are already running complete first; later calls fail with an {@link IllegalStateException}. Closing twice has
+     * no effect.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        // Taking every permit waits for the running inference calls before the session is freed
+        this.inferencePermits.acquireUninterruptibly(this.maxConcurrentInferences);
+        try {
+            this.session.close();
+        } catch (OrtException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            // No call holds a buffer set once every permit is taken
+            this.idleBuffers.clear();
+            this.closeTokenizer();
+            this.inferencePermits.release(this.maxConcurrentInferences);
+        }
+    }
+
+    // Frees the tokenizer once the running tokenizer calls have completed.
+    private void closeTokenizer() {
+        Lock lock = this.tokenizerLock.writeLock();
+        lock.lock();
+        try {
+            this.tokenizer.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs a tokenizer call, failing if the encoder is closed. The closed check and the call are made under the
+    // read lock so that the native tokenizer cannot be freed while they run.
+    private <T> T tokenize(Supplier<T> call) {
+        Lock lock = this.tokenizerLock.readLock();
+        lock.lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Encoder is closed");
+            }
+            return call.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the highest number of inference calls that have run on the session at the same time, which never
+     * exceeds the configured maximum number of concurrent inferences.
+     *
+     * @return The peak number of concurrent inference calls since the encoder was created.
+     */
+    public int getPeakConcurrentInferences() {
+        return this.peakConcurrentInferences.get();
+    }
+
+    /**
+     * Checks whether the encoder has been closed.
+     *
+     * @return true if {@link #close()} has been called.
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    // Runs a single padded batch of sequences through the model and pools each row over its real tokens.
+    // Positions beyond the length of a sequence are padding and have their attention mask set to 0.
+    private float[][] embedSequences(List<Sequence> sequences) {
+        int batchSize = sequences.size();
+        int maxLength = 0;
+        for (Sequence sequence : sequences) {
+            maxLength = Math.max(maxLength, sequence.length());
+        }
+
+        long[] inputIds = new long[batchSize * maxLength];
+        long[] attentionMask = new long[batchSize * maxLength];
+        long[] tokenTypeIds = new long[batchSize * maxLength];
+        for (int i = 0; i < batchSize; i++) {
+            Sequence sequence = sequences.get(i);
+            int offset = i * maxLength;
+            System.arraycopy(sequence.ids(), 0, inputIds, offset, sequence.length());
+            System.arraycopy(sequence.typeIds(), 0, tokenTypeIds, offset, sequence.length());
+            Arrays.fill(attentionMask, offset, offset + sequence.length(), 1L);
+        }
+
+        long[] shape = new long[]{batchSize, maxLength};
+        try (OrtSession.Result result = this.run(inputIds, attentionMask, tokenTypeIds, shape)) {
+            OnnxTensor output = this.output(result);
+            long[] outputShape = output.getInfo().getShape();
+            int dimensions = (int) outputShape[outputShape.length - 1];
+            FloatBuffer vectors = output.getFloatBuffer();
+            float[][] embeddings = new float[batchSize][];
+            for (int i = 0; i < batchSize; i++) {
+                embeddings[i] = this.pooledOutput
+                        ? row(vectors, i * dimensions, dimensions)
+                        : this.pool(vectors, i * maxLength * dimensions, sequences.get(i).length(), dimensions);
+            }
+            return embeddings;
+        } catch (OrtException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // Wraps the input arrays into tensors of the given shape and runs inference.
+    private OrtSession.Result run(long[] inputIds, long[] attentionMask, long[] tokenTypeIds, long[] shape) throws OrtException {
         try (
                 OnnxTensor inputIdsTensor = OnnxTensor.createTensor(this.environment, LongBuffer.wrap(inputIds), shape);
                 OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(this.environment, LongBuffer.wrap(attentionMask), shape);
@@ -110,133 +775,293 @@ public class OnnxBertEncoder {
             if (this.expectedInputs.contains("token_type_ids")) {
                 inputs.put("token_type_ids", tokenTypeIdsTensor);
             }
-            return this.session.run(inputs);
+            return this.run(inputs);
         }
     }
 
-    // Converts tokens into text while removing special tokens if necessary.
-    private String toText(List<String> tokens) {
-        String text = this.tokenizer.buildSentence(tokens);
-        List<String> tokenized = this.tokenizer.tokenize(text);
-        List<String> tokenizedWithoutSpecialTokens = new LinkedList<>(tokenized);
-        tokenizedWithoutSpecialTokens.remove(0);
-        tokenizedWithoutSpecialTokens.remove(tokenizedWithoutSpecialTokens.size() - 1);
-        return tokenizedWithoutSpecialTokens.equals(tokens) ? text : String.join("", tokens);
+    // Runs inference over tensors wrapping the buffer set, writing the output into the set's output buffer.
+    // The caller holds an inference permit.
+    private void runPinned(InferenceBuffers buffers, TokenizedText encoding) {
+        int length = encoding.length();
+        try (
+                OnnxTensor inputIdsTensor = OnnxTensor.createTensor(this.environment, buffers.inputIds(encoding), buffers.inputShape(length));
+                OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(this.environment, buffers.attentionMask(length), buffers.inputShape(length));
+                OnnxTensor tokenTypeIdsTensor = OnnxTensor.createTensor(this.environment, buffers.tokenTypeIds(encoding), buffers.inputShape(length));
+                OnnxTensor outputTensor = OnnxTensor.createTensor(this.environment, buffers.output(length), buffers.outputShape(length))
+        ) {
+            Map<String, OnnxTensor> inputs = buffers.inputs;
+            inputs.put("input_ids", inputIdsTensor);
+            inputs.put("attention_mask", attentionMaskTensor);
+            if (this.expectedInputs.contains("token_type_ids")) {
+                inputs.put("token_type_ids", tokenTypeIdsTensor);
+            }
+            buffers.outputs.put(this.outputName, outputTensor);
+            try {
+                this.runPermitted(inputs, buffers.outputs).close();
+            } finally {
+                inputs.clear();
+                buffers.outputs.clear();
+            }
+        } catch (OrtException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
-    // Converts the ONNX result into a pooled embedding vector.
-    private float[] toEmbedding(OrtSession.Result result) throws OrtException {
-        float[][] vectors = ((float[][][]) result.get(0).getValue())[0];
-        return this.pool(vectors);
+    // Runs inference once a permit is available.
+    private OrtSession.Result run(Map<String, OnnxTensor> inputs) throws OrtException {
+        this.inferencePermits.acquireUninterruptibly();
+        try {
+            return this.runPermitted(inputs, null);
+        } finally {
+            this.inferencePermits.release();
+        }
+    }
+
+    // Runs inference while holding a permit, writing the output into the pinned output tensors if any are given.
+    private OrtSession.Result runPermitted(Map<String, OnnxTensor> inputs, Map<String, OnnxTensor> pinnedOutputs) throws OrtException {
+        if (this.closed) {
+            throw new IllegalStateException("Encoder is closed");
+        }
+        this.peakConcurrentInferences.accumulateAndGet(this.runningInferences.incrementAndGet(), Math::max);
+        try {
+            return pinnedOutputs == null
+                    ? this.session.run(inputs, Collections.singleton(this.outputName))
+                    : this.session.run(inputs, pinnedOutputs);
+        } finally {
+            this.runningInferences.decrementAndGet();
+        }
     }
 
-    // Applies the specified pooling mode to the embedding vectors.
-    private float[] pool(float[][] vectors) {
+    // Returns the output tensor holding the embeddings.
+    private OnnxTensor output(OrtSession.Result result) {
+        return (OnnxTensor) result.get(this.outputName)
+                .orElseThrow(() -> new IllegalStateException("Model output not found: " + this.outputName));
+    }
+
+    // Copies one row of a [batchSize, dimensions] output.
+    private static float[] row(FloatBuffer vectors, int offset, int dimensions) {
+        float[] vector = new float[dimensions];
+        vectors.get(offset, vector);
+        return vector;
+    }
+
+    // Applies the specified pooling mode to numVectors consecutive embedding vectors starting at offset.
+    private float[] pool(FloatBuffer vectors, int offset, int numVectors, int dimensions) {
         return switch (this.poolingMode) {
-            case CLS -> clsPool(vectors);
-            case MEAN -> meanPool(vectors);
+            case CLS -> clsPool(vectors, offset, dimensions);
+            case MEAN -> meanPool(vectors, offset, numVectors, dimensions);
         };
     }
 
     // Performs CLS pooling on the embedding vectors.
-    private static float[] clsPool(float[][] vectors) {
-        return vectors[0];
+    private static float[] clsPool(FloatBuffer vectors, int offset, int dimensions) {
+        return row(vectors, offset, dimensions);
     }
 
     // Performs mean pooling on the embedding vectors.
-    private static float[] meanPool(float[][] vectors) {
-        int numVectors = vectors.length;
-        int vectorLength = vectors[0].length;
-        float[] averagedVector = new float[vectorLength];
-
-        for (float[] vector : vectors) {
-            for (int j = 0; j < vectorLength; ++j) {
-                averagedVector[j] += vector[j];
-            }
+    private static float[] meanPool(FloatBuffer vectors, int offset, int numVectors, int dimensions) {
+        if (vectors.hasArray()) {
+            return VectorKernels.meanRows(vectors.array(), vectors.arrayOffset() + offset, numVectors, dimensions);
         }
-
-        for (int j = 0; j < vectorLength; ++j) {
-            averagedVector[j] /= numVectors;
-        }
-
-        return averagedVector;
+        float[] tokenVectors = new float[numVectors * dimensions];
+        vectors.get(offset, tokenVectors);
+        return VectorKernels.meanRows(tokenVectors, 0, numVectors, dimensions);
     }
 
     // Computes the weighted average of embeddings based on token weights.
     private float[] weightedAverage(List<float[]> embeddings, List<Integer> weights) {
-        int dimensions = embeddings.get(0).length;
-        float[] averagedEmbedding = new float[dimensions];
+        float[] averagedEmbedding = new float[embeddings.get(0).length];
         int totalWeight = weights.stream().mapToInt(Integer::intValue).sum();
 
         for (int i = 0; i < embeddings.size(); ++i) {
-            int weight = weights.get(i);
-
-            for (int j = 0; j < dimensions; ++j) {
-                averagedEmbedding[j] += embeddings.get(i)[j] * weight;
-            }
-        }
-
-        for (int j = 0; j < dimensions; ++j) {
-            averagedEmbedding[j] /= totalWeight;
+            VectorKernels.axpy(weights.get(i), embeddings.get(i), averagedEmbedding);
         }
+        VectorKernels.scale(1.0F / totalWeight, averagedEmbedding);
 
         return averagedEmbedding;
     }
 
-    // Normalizes the embedding vector to have unit norm.
+    // Normalizes the embedding vector in place to have unit norm.
     private static float[] normalize(float[] vector) {
-        float sumSquare = 0.0F;
-
-        for (float v : vector) {
-            sumSquare += v * v;
-        }
-
-        float norm = (float) Math.sqrt(sumSquare);
-        float[] normalizedVector = new float[vector.length];
-
-        for (int i = 0; i < vector.length; ++i) {
-            normalizedVector[i] = vector[i] / norm;
-        }
-
-        return normalizedVector;
+        VectorKernels.scale(1.0F / VectorKernels.norm(vector), vector);
+        return vector;
     }
 
-    // Loads the model from the InputStream and converts it into a byte array.
-    private byte[] loadModel(InputStream modelInputStream) {
-        try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-            byte[] data = new byte[1024];
-
-            int nRead;
-            while ((nRead = modelInputStream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+    // Creates the session with the options described by the configuration, releasing the options if they are ours.
+    private OrtSession createSession(SessionSource model, EncoderConfig config) throws OrtException {
+        OrtSession.SessionOptions options = config.toSessionOptions();
+        try {
+            return model.create(this.environment, options);
+        } finally {
+            if (config.ownsSessionOptions()) {
+                options.close();
             }
+        }
+    }
 
-            buffer.flush();
-            return buffer.toByteArray();
+    // Loads the model from the InputStream into a byte array.
+    private static byte[] loadModel(InputStream modelInputStream) {
+        try {
+            return modelInputStream.readAllBytes();
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
-    // Partitions tokens into segments that fit within the model's input size.
-    private static List<List<String>> partition(List<String> tokens, int partitionSize) {
-        List<List<String>> partitions = new ArrayList<>();
+    // Loads the tokenizer described by a tokenizer.json stream with the selected implementation.
+    private static TextTokenizer loadTokenizer(InputStream tokenizer, TokenizerImplementation implementation) throws IOException {
+        return switch (implementation) {
+            case HUGGING_FACE -> new HuggingFaceTextTokenizer(tokenizer, TOKENIZER_OPTIONS);
+            case WORD_PIECE -> new WordPieceTokenizer(tokenizer);
+        };
+    }
+
+    // Partitions the content tokens (between [CLS] and [SEP]) into windows that fit within the model's input size,
+    // moving each boundary back so that no word is split across two windows.
+    private static List<Window> partition(long[] wordIds, int partitionSize) {
+        List<Window> partitions = new ArrayList<>();
 
         int to;
-        for (int from = 1; from < tokens.size() - 1; from = to) {
+        for (int from = 1; from < wordIds.length - 1; from = to) {
             to = from + partitionSize;
-            if (to >= tokens.size() - 1) {
-                to = tokens.size() - 1;
+            if (to >= wordIds.length - 1) {
+                to = wordIds.length - 1;
             } else {
-                while (tokens.get(to).startsWith("##")) {
+                while (to > from + 1 && wordIds[to] == wordIds[to - 1]) {
                     --to;
                 }
             }
-            partitions.add(tokens.subList(from, to));
+            partitions.add(new Window(from, to));
         }
         return partitions;
     }
 
+    // Input and output buffers used by one embedInto call at a time. The buffers are direct, so ONNX Runtime
+    // reads the inputs and writes the output in place, and they are sized for a full model window.
+    private static final class InferenceBuffers {
+        private static final int CAPACITY = MAX_SEQUENCE_LENGTH + 2;
+
+        private final LongBuffer inputIds = allocateLongs(CAPACITY);
+        private final LongBuffer attentionMask = allocateLongs(CAPACITY);
+        private final LongBuffer tokenTypeIds = allocateLongs(CAPACITY);
+        private final FloatBuffer output;
+        private final float[] row;
+        private final long[][] inputShapes = new long[CAPACITY + 1][];
+        private final long[][] outputShapes = new long[CAPACITY + 1][];
+        private final boolean pooledOutput;
+        private final int dimensions;
+        private final Map<String, OnnxTensor> inputs = new HashMap<>();
+        private final Map<String, OnnxTensor> outputs = new HashMap<>();
+
+        InferenceBuffers(boolean pooledOutput, int dimensions) {
+            this.pooledOutput = pooledOutput;
+            this.dimensions = dimensions;
+            this.output = ByteBuffer.allocateDirect((pooledOutput ? 1 : CAPACITY) * dimensions * Float.BYTES)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            this.row = new float[dimensions];
+            while (this.attentionMask.hasRemaining()) {
+                this.attentionMask.put(1L);
+            }
+        }
+
+        LongBuffer inputIds(TokenizedText encoding) {
+            return fill(this.inputIds, encoding.ids());
+        }
+
+        LongBuffer tokenTypeIds(TokenizedText encoding) {
+            return fill(this.tokenTypeIds, encoding.typeIds());
+        }
+
+        LongBuffer attentionMask(int length) {
+            return this.attentionMask.limit(length).position(0);
+        }
+
+        FloatBuffer output(int length) {
+            return this.output.limit((this.pooledOutput ? 1 : length) * this.dimensions).position(0);
+        }
+
+        // Shapes are cached per sequence length so that repeated calls do not allocate them.
+        long[] inputShape(int length) {
+            long[] shape = this.inputShapes[length];
+            if (shape == null) {
+                shape = new long[]{1, length};
+                this.inputShapes[length] = shape;
+            }
+            return shape;
+        }
+
+        long[] outputShape(int length) {
+            long[] shape = this.outputShapes[length];
+            if (shape == null) {
+                shape = this.pooledOutput ? new long[]{1, this.dimensions} : new long[]{1, length, this.dimensions};
+                this.outputShapes[length] = shape;
+            }
+            return shape;
+        }
+
+        private static LongBuffer fill(LongBuffer buffer, long[] values) {
+            buffer.clear();
+            buffer.put(values);
+            return buffer.flip();
+        }
+
+        private static LongBuffer allocateLongs(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+
+    // A range [from, to) of token positions of an encoded text that is sent to the model as one sequence.
+    private record Window(int from, int to) {
+        int size() {
+            return to - from;
+        }
+    }
+
+    // The token ids and type ids of one model input row, including the [CLS] and [SEP] tokens.
+    private record Sequence(long[] ids, long[] typeIds) {
+
+        // Uses the whole encoding, which already starts with [CLS] and ends with [SEP].
+        static Sequence of(TokenizedText encoding) {
+            return new Sequence(encoding.ids(), encoding.typeIds());
+        }
+
+        // Frames one window of the encoding with the encoding's [CLS] and [SEP] tokens.
+        static Sequence of(TokenizedText encoding, Window window) {
+            long[] ids = encoding.ids();
+            long[] typeIds = encoding.typeIds();
+            if (window.from() == 1 && window.to() == ids.length - 1) {
+                return of(encoding);
+            }
+
+            int length = window.size() + 2;
+            long[] windowIds = new long[length];
+            long[] windowTypeIds = new long[length];
+            windowIds[0] = ids[0];
+            windowTypeIds[0] = typeIds[0];
+            System.arraycopy(ids, window.from(), windowIds, 1, window.size());
+            System.arraycopy(typeIds, window.from(), windowTypeIds, 1, window.size());
+            windowIds[length - 1] = ids[ids.length - 1];
+            windowTypeIds[length - 1] = typeIds[typeIds.length - 1];
+            return new Sequence(windowIds, windowTypeIds);
+        }
+
+        int length() {
+            return ids.length;
+        }
+    }
+
+    // Source of the model session, e.g. a file path, an in-memory buffer or a byte array.
+    @FunctionalInterface
+    private interface SessionSource {
+        OrtSession create(OrtEnvironment environment, OrtSession.SessionOptions options) throws OrtException;
+    }
+
+    // Source of the tokenizer, e.g. a file path or a stream.
+    @FunctionalInterface
+    private interface TokenizerSource {
+        TextTokenizer load(TokenizerImplementation implementation) throws IOException;
+    }
+
     /**
      * Enum to define the pooling mode for embeddings.
      */
@@ -0,0 +1,101 @@
+package io.github.franklinruiz.encoder;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * OptimizedModelCache persists the graph produced by the ONNX Runtime optimizer so that later starts can skip it.
+ * The first session created for a model runs the optimizations and writes the optimized graph to the cache
+ * directory; later sessions load that file with optimizations disabled.
+ * <p>
+ * Cached files are keyed by the identity of the source model (absolute path, size and modification time),
+ * the ONNX Runtime version and the optimization level, so upgrading the runtime or replacing the model
+ * produces a new file instead of reusing a stale one.
+ */
+class OptimizedModelCache {
+
+    // Level used when the configuration does not set one: the default of ONNX Runtime, so that persisting the graph
+    // does not change the graph the session runs.
+    private static final OrtSession.SessionOptions.OptLevel DEFAULT_LEVEL = OrtSession.SessionOptions.OptLevel.ALL_OPT;
+
+    private OptimizedModelCache() {
+        throw new IllegalStateException("OptimizedModelCache class");
+    }
+
+    /**
+     * Creates a session for the model, reusing the optimized graph from the cache directory when available.
+     * The optimized graph is written by a session created with private options, so that the given options never
+     * point at the temporary file the graph is written to, and loaded with optimizations disabled.
+     *
+     * @param environment The ONNX Runtime environment.
+     * @param model       Path to the original ONNX model file.
+     * @param options     The session options, owned by the configuration.
+     * @param config      The configuration holding the cache directory and the optimization level.
+     * @return The created session.
+     * @throws OrtException If the session cannot be created.
+     * @throws IOException  If the cache directory cannot be used.
+     */
+    static OrtSession createSession(OrtEnvironment environment, Path model, OrtSession.SessionOptions options,
+                                    EncoderConfig config) throws OrtException, IOException {
+        Path directory = config.getOptimizedModelDirectory();
+        OrtSession.SessionOptions.OptLevel optimizationLevel = config.getOptimizationLevel() != null
+                ? config.getOptimizationLevel() : DEFAULT_LEVEL;
+        Path optimized = directory.resolve(fileName(model, environment.getVersion(), optimizationLevel));
+
+        if (!Files.isRegularFile(optimized)) {
+            // The session was created with the same settings, so it is the one the caller asked for
+            return writeOptimized(environment, model, optimized, config, optimizationLevel);
+        }
+        // The graph is already optimized, so running the optimizer again would only slow down the start
+        options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+        return environment.createSession(optimized.toString(), options);
+    }
+
+    // Optimizes the model with private session options and atomically publishes the optimized graph.
+    private static OrtSession writeOptimized(OrtEnvironment environment, Path model, Path optimized, EncoderConfig config,
+                                             OrtSession.SessionOptions.OptLevel optimizationLevel) throws OrtException, IOException {
+        Files.createDirectories(optimized.getParent());
+        Path temporary = Files.createTempFile(optimized.getParent(), optimized.getFileName().toString(), ".tmp");
+        try (OrtSession.SessionOptions options = config.newSessionOptions()) {
+            options.setOptimizationLevel(optimizationLevel);
+            options.setOptimizedModelFilePath(temporary.toString());
+            OrtSession session = environment.createSession(model.toString(), options);
+            try {
+                Files.move(temporary, optimized, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, optimized, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                session.close();
+                throw e;
+            }
+            return session;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Builds the cache file name from the model identity, the runtime version and the optimization level.
+    private static String fileName(Path model, String ortVersion, OrtSession.SessionOptions.OptLevel level) throws IOException {
+        Path absolute = model.toAbsolutePath().normalize();
+        String identity = absolute + "|" + Files.size(absolute) + "|" + Files.getLastModifiedTime(absolute).toMillis()
+                + "|" + ortVersion + "|" + level;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            String name = absolute.getFileName().toString().replaceFirst("\\.onnx$", "");
+            return name + "-" + HexFormat.of().formatHex(digest, 0, 8) + ".optimized.onnx";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.franklinruiz.encoder;
+
+/**
+ * Enum to select how {@link OnnxBertEncoder} handles texts with more tokens than fit in a single model window.
+ */
+public enum OverflowStrategy {
+
+    /**
+     * Splits the text into as many model windows as needed and averages their embeddings, so that every token
+     * contributes. The cost grows with the length of the text.
+     */
+    PARTITION,
+
+    /**
+     * Keeps the beginning of the text, up to a single model window. The text is cut at a character bound before
+     * tokenization, so the cost of a call has a fixed ceiling however long the text is.
+     */
+    TRUNCATE_HEAD,
+
+    /**
+     * Keeps the beginning and the end of the text, a quarter and three quarters of a model window respectively,
+     * which preserves the conclusion of long documents. As with {@link #TRUNCATE_HEAD}, the text is cut at
+     * a character bound before tokenization.
+     */
+    TRUNCATE_HEAD_TAIL
+}
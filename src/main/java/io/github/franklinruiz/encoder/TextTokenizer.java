@@ -0,0 +1,63 @@
+package io.github.franklinruiz.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TextTokenizer turns texts into the token ids expected by the model. Implementations never pad or truncate:
+ * the encoder pads batches itself and splits texts that do not fit in a single model window.
+ * Implementations must be thread-safe.
+ */
+interface TextTokenizer extends AutoCloseable {
+
+    /**
+     * Tokenizes the text, adding the [CLS] and [SEP] special tokens expected by the model.
+     *
+     * @param text The input text to tokenize.
+     * @return The token ids, type ids and word ids of the text.
+     */
+    TokenizedText encode(String text);
+
+    /**
+     * Tokenizes each of the given texts, adding the [CLS] and [SEP] special tokens expected by the model.
+     *
+     * @param texts The input texts to tokenize.
+     * @return The token ids, type ids and word ids of each text, in the same order as the input texts.
+     */
+    default List<TokenizedText> encodeBatch(List<String> texts) {
+        List<TokenizedText> encodings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            encodings.add(encode(text));
+        }
+        return encodings;
+    }
+
+    /**
+     * Counts the number of tokens in the given text, including the special tokens.
+     *
+     * @param text The input text to tokenize.
+     * @return The number of tokens in the input text.
+     */
+    int countTokens(String text);
+
+    /**
+     * Counts the number of tokens in each of the given texts, including the special tokens.
+     *
+     * @param texts The input texts to tokenize.
+     * @return The number of tokens of each text, in the same order as the input texts.
+     */
+    default int[] countTokensBatch(List<String> texts) {
+        int[] counts = new int[texts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = countTokens(texts.get(i));
+        }
+        return counts;
+    }
+
+    /**
+     * Releases the native resources held by the tokenizer, if any.
+     */
+    @Override
+    default void close() {
+    }
+}
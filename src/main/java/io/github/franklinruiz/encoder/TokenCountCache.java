@@ -0,0 +1,62 @@
+package io.github.franklinruiz.encoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TokenCountCache is a bounded LRU cache of token counts keyed by normalized text that can be shared between threads.
+ * Token counts are requested far more often than embeddings, so they are cached separately and more of them are kept.
+ */
+class TokenCountCache {
+
+    // Access-ordered map: normalized text -> token count
+    private final Map<String, Integer> entries;
+
+    // Lock guarding the map, which is mutated on every access because of its access order.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Constructs a TokenCountCache that keeps at most the given number of token counts.
+     *
+     * @param capacity The maximum number of cached token counts.
+     */
+    TokenCountCache(int capacity) {
+        this.entries = new LinkedHashMap<String, Integer>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached token count for the given text.
+     *
+     * @param text The normalized text.
+     * @return The cached token count, or null if the text is not cached.
+     */
+    Integer get(String text) {
+        lock.lock();
+        try {
+            return entries.get(text);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches the token count for the given text.
+     *
+     * @param text       The normalized text.
+     * @param tokenCount The token count to cache.
+     */
+    void put(String text, int tokenCount) {
+        lock.lock();
+        try {
+            entries.put(text, tokenCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
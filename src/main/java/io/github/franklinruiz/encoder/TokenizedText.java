@@ -0,0 +1,17 @@
+package io.github.franklinruiz.encoder;
+
+/**
+ * TokenizedText holds the token ids of one text as fed to the model, including the [CLS] and [SEP] special tokens,
+ * together with their type ids and the index of the word each token belongs to (-1 for special tokens).
+ */
+record TokenizedText(long[] ids, long[] typeIds, long[] wordIds) {
+
+    /**
+     * Returns the number of tokens, including the special tokens.
+     *
+     * @return The number of tokens.
+     */
+    int length() {
+        return ids.length;
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.franklinruiz.encoder;
+
+/**
+ * Enum to select the tokenizer implementation used by {@link OnnxBertEncoder}.
+ */
+public enum TokenizerImplementation {
+
+    /**
+     * The native Hugging Face tokenizers library, called through JNI. Supports every {@code tokenizer.json}.
+     */
+    HUGGING_FACE,
+
+    /**
+     * A pure-Java WordPiece tokenizer producing the same ids as the Hugging Face tokenizer for BERT-style
+     * {@code tokenizer.json} files, except for characters added in recent Unicode versions. It avoids the JNI
+     * and marshaling overhead, which dominates for short texts.
+     */
+    WORD_PIECE
+}
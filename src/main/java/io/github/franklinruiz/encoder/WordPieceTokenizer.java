@@ -0,0 +1,502 @@
+package io.github.franklinruiz.encoder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * WordPieceTokenizer is a pure-Java implementation of the BERT tokenization pipeline described by a Hugging Face
+ * {@code tokenizer.json} file: added special tokens, {@code BertNormalizer}, {@code BertPreTokenizer}, the
+ * {@code WordPiece} model and the {@code [CLS] $A [SEP]} template. It produces the same ids as the native tokenizer
+ * without crossing JNI, which matters for short texts where the call overhead rivals the tokenization itself.
+ * <p>
+ * The vocabulary is stored in two array-backed tries, one for word-initial pieces and one for continuation pieces
+ * (without their {@code ##} prefix), so the greedy longest-match search walks the text without creating substrings.
+ * Instances are immutable and thread-safe.
+ * <p>
+ * Character classes come from the Unicode tables of the running JDK, which are newer than those of the native library:
+ * marks and punctuation added in recent Unicode versions are treated as such here but as unknown letters natively.
+ */
+class WordPieceTokenizer implements TextTokenizer {
+
+    // Id returned by the tries for character sequences that are not a vocabulary token.
+    private static final int NO_TOKEN = -1;
+
+    // Word id of the special tokens added around the text.
+    private static final long SPECIAL_TOKEN_WORD_ID = -1;
+
+    // Vocabulary of word-initial pieces.
+    private final Trie initialPieces;
+
+    // Vocabulary of continuation pieces, keyed without their prefix.
+    private final Trie continuationPieces;
+
+    // Id of the token replacing words that cannot be split into vocabulary pieces.
+    private final int unknownId;
+
+    // Words longer than this number of characters are replaced by the unknown token.
+    private final int maxInputCharsPerWord;
+
+    // Special tokens matched verbatim in the raw text, before normalization, and their ids.
+    private final String[] addedTokens;
+    private final int[] addedTokenIds;
+
+    // Ids and type ids of the tokens added before and after the text, and the type id of the text tokens.
+    private final int prefixId;
+    private final int prefixTypeId;
+    private final int suffixId;
+    private final int suffixTypeId;
+    private final int sequenceTypeId;
+
+    // BertNormalizer settings.
+    private final boolean cleanText;
+    private final boolean handleChineseChars;
+    private final boolean stripAccents;
+    private final boolean lowercase;
+
+    /**
+     * Loads the tokenizer described by the given {@code tokenizer.json} stream.
+     *
+     * @param tokenizer InputStream representing the tokenizer configuration file.
+     * @throws IllegalArgumentException If the file does not describe a BERT WordPiece tokenizer.
+     */
+    WordPieceTokenizer(InputStream tokenizer) {
+        JsonObject config = JsonParser.parseReader(new InputStreamReader(tokenizer, StandardCharsets.UTF_8)).getAsJsonObject();
+
+        JsonObject model = object(config, "model");
+        require("WordPiece".equals(string(model, "type", null)), "model must be WordPiece");
+        require("BertPreTokenizer".equals(string(object(config, "pre_tokenizer"), "type", null)),
+                "pre_tokenizer must be BertPreTokenizer");
+
+        JsonObject vocab = object(model, "vocab");
+        List<String> words = new ArrayList<>(vocab.keySet());
+        int[] ids = new int[words.size()];
+        words.sort(null);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = vocab.get(words.get(i)).getAsInt();
+        }
+        String prefix = string(model, "continuing_subword_prefix", "##");
+        this.initialPieces = Trie.build(words, ids, "");
+        this.continuationPieces = Trie.build(words, ids, prefix);
+        String unknownToken = string(model, "unk_token", "[UNK]");
+        require(vocab.has(unknownToken), "unk_token must be in the vocabulary");
+        this.unknownId = vocab.get(unknownToken).getAsInt();
+        this.maxInputCharsPerWord = model.has("max_input_chars_per_word") ? model.get("max_input_chars_per_word").getAsInt() : 100;
+
+        JsonElement normalizerElement = config.get("normalizer");
+        if (normalizerElement == null || normalizerElement.isJsonNull()) {
+            this.cleanText = false;
+            this.handleChineseChars = false;
+            this.stripAccents = false;
+            this.lowercase = false;
+        } else {
+            JsonObject normalizer = normalizerElement.getAsJsonObject();
+            require("BertNormalizer".equals(string(normalizer, "type", null)), "normalizer must be BertNormalizer");
+            this.cleanText = bool(normalizer, "clean_text", true);
+            this.handleChineseChars = bool(normalizer, "handle_chinese_chars", true);
+            this.lowercase = bool(normalizer, "lowercase", true);
+            // Accents are stripped along with lowercasing unless configured explicitly
+            this.stripAccents = bool(normalizer, "strip_accents", this.lowercase);
+        }
+
+        JsonArray added = config.has("added_tokens") ? config.getAsJsonArray("added_tokens") : new JsonArray();
+        this.addedTokens = new String[added.size()];
+        this.addedTokenIds = new int[added.size()];
+        for (int i = 0; i < added.size(); i++) {
+            JsonObject token = added.get(i).getAsJsonObject();
+            require(!bool(token, "normalized", false) && !bool(token, "single_word", false)
+                    && !bool(token, "lstrip", false) && !bool(token, "rstrip", false),
+                    "added tokens must match the raw text verbatim");
+            this.addedTokens[i] = string(token, "content", null);
+            this.addedTokenIds[i] = token.get("id").getAsInt();
+        }
+
+        JsonObject postProcessor = object(config, "post_processor");
+        require("TemplateProcessing".equals(string(postProcessor, "type", null)), "post_processor must be TemplateProcessing");
+        JsonArray template = postProcessor.getAsJsonArray("single");
+        require(template.size() == 3
+                        && template.get(0).getAsJsonObject().has("SpecialToken")
+                        && template.get(1).getAsJsonObject().has("Sequence")
+                        && template.get(2).getAsJsonObject().has("SpecialToken"),
+                "post_processor template must be a special token, the sequence and a special token");
+        JsonObject specialTokens = object(postProcessor, "special_tokens");
+        JsonObject prefixToken = template.get(0).getAsJsonObject().getAsJsonObject("SpecialToken");
+        JsonObject suffixToken = template.get(2).getAsJsonObject().getAsJsonObject("SpecialToken");
+        this.prefixId = specialTokenId(specialTokens, string(prefixToken, "id", null));
+        this.prefixTypeId = prefixToken.get("type_id").getAsInt();
+        this.suffixId = specialTokenId(specialTokens, string(suffixToken, "id", null));
+        this.suffixTypeId = suffixToken.get("type_id").getAsInt();
+        this.sequenceTypeId = template.get(1).getAsJsonObject().getAsJsonObject("Sequence").get("type_id").getAsInt();
+    }
+
+    @Override
+    public TokenizedText encode(String text) {
+        Output output = new Output(true);
+        tokenize(text, output);
+
+        int length = output.size + 2;
+        long[] ids = new long[length];
+        long[] typeIds = new long[length];
+        long[] wordIds = new long[length];
+        ids[0] = prefixId;
+        typeIds[0] = prefixTypeId;
+        wordIds[0] = SPECIAL_TOKEN_WORD_ID;
+        System.arraycopy(output.ids, 0, ids, 1, output.size);
+        Arrays.fill(typeIds, 1, length - 1, sequenceTypeId);
+        System.arraycopy(output.wordIds, 0, wordIds, 1, output.size);
+        ids[length - 1] = suffixId;
+        typeIds[length - 1] = suffixTypeId;
+        wordIds[length - 1] = SPECIAL_TOKEN_WORD_ID;
+        return new TokenizedText(ids, typeIds, wordIds);
+    }
+
+    @Override
+    public int countTokens(String text) {
+        Output output = new Output(false);
+        tokenize(text, output);
+        return output.size + 2;
+    }
+
+    // Splits the raw text around the added tokens, then normalizes, pre-tokenizes and splits every other segment.
+    private void tokenize(String text, Output output) {
+        int segmentStart = 0;
+        int position = 0;
+        while (position < text.length()) {
+            int added = addedTokenAt(text, position);
+            if (added < 0) {
+                position++;
+                continue;
+            }
+            tokenizeSegment(text, segmentStart, position, output);
+            output.add(addedTokenIds[added], output.nextWordId++);
+            position += addedTokens[added].length();
+            segmentStart = position;
+        }
+        tokenizeSegment(text, segmentStart, text.length(), output);
+    }
+
+    // Returns the index of the longest added token starting at the given position, or -1 if there is none.
+    private int addedTokenAt(String text, int position) {
+        int match = -1;
+        for (int i = 0; i < addedTokens.length; i++) {
+            if (text.startsWith(addedTokens[i], position)
+                    && (match < 0 || addedTokens[i].length() > addedTokens[match].length())) {
+                match = i;
+            }
+        }
+        return match;
+    }
+
+    // Normalizes a segment of the raw text and splits it into words on whitespace and punctuation.
+    private void tokenizeSegment(String text, int from, int to, Output output) {
+        if (from == to) {
+            return;
+        }
+        String normalized = normalize(text, from, to);
+
+        int wordStart = -1;
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            int next = i + Character.charCount(codePoint);
+            if (isWhitespace(codePoint) || isPunctuation(codePoint)) {
+                if (wordStart >= 0) {
+                    tokenizeWord(normalized, wordStart, i, output);
+                    wordStart = -1;
+                }
+                if (!isWhitespace(codePoint)) {
+                    // Punctuation characters are words of their own
+                    tokenizeWord(normalized, i, next, output);
+                }
+            } else if (wordStart < 0) {
+                wordStart = i;
+            }
+            i = next;
+        }
+        if (wordStart >= 0) {
+            tokenizeWord(normalized, wordStart, normalized.length(), output);
+        }
+    }
+
+    // Splits one word into the longest vocabulary pieces, greedily from left to right.
+    private void tokenizeWord(String word, int from, int to, Output output) {
+        long wordId = output.nextWordId++;
+        if (Character.codePointCount(word, from, to) > maxInputCharsPerWord) {
+            output.add(unknownId, wordId);
+            return;
+        }
+
+        int mark = output.size;
+        int start = from;
+        while (start < to) {
+            Trie pieces = start == from ? initialPieces : continuationPieces;
+            int node = 0;
+            int matchId = NO_TOKEN;
+            int matchEnd = start;
+            for (int i = start; i < to; i++) {
+                node = pieces.child(node, word.charAt(i));
+                if (node < 0) {
+                    break;
+                }
+                if (pieces.tokenIds[node] != NO_TOKEN) {
+                    matchId = pieces.tokenIds[node];
+                    matchEnd = i + 1;
+                }
+            }
+            if (matchId == NO_TOKEN) {
+                // A word that cannot be fully split is replaced by a single unknown token
+                output.size = mark;
+                output.add(unknownId, wordId);
+                return;
+            }
+            output.add(matchId, wordId);
+            start = matchEnd;
+        }
+    }
+
+    // Applies the BertNormalizer steps in order: text cleanup, spacing of CJK characters, accent stripping, lowercasing.
+    private String normalize(String text, int from, int to) {
+        StringBuilder builder = new StringBuilder(to - from + 8);
+        boolean ascii = true;
+        for (int i = from; i < to; ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (cleanText) {
+                if (codePoint == 0 || codePoint == 0xFFFD || isControl(codePoint)) {
+                    continue;
+                }
+                if (isWhitespace(codePoint)) {
+                    builder.append(' ');
+                    continue;
+                }
+            }
+            ascii &= codePoint < 0x80;
+            if (handleChineseChars && isChineseChar(codePoint)) {
+                builder.append(' ').appendCodePoint(codePoint).append(' ');
+                continue;
+            }
+            builder.appendCodePoint(codePoint);
+        }
+
+        if (ascii) {
+            // Accent stripping leaves ASCII untouched and ASCII lowercasing maps one character to one character
+            if (lowercase) {
+                for (int i = 0; i < builder.length(); i++) {
+                    char c = builder.charAt(i);
+                    if (c >= 'A' && c <= 'Z') {
+                        builder.setCharAt(i, (char) (c + ('a' - 'A')));
+                    }
+                }
+            }
+            return builder.toString();
+        }
+
+        String normalized = builder.toString();
+        if (stripAccents) {
+            String decomposed = Normalizer.normalize(normalized, Normalizer.Form.NFD);
+            StringBuilder stripped = new StringBuilder(decomposed.length());
+            decomposed.codePoints()
+                    .filter(codePoint -> Character.getType(codePoint) != Character.NON_SPACING_MARK)
+                    .forEach(stripped::appendCodePoint);
+            normalized = stripped.toString();
+        }
+        if (lowercase) {
+            StringBuilder lowered = new StringBuilder(normalized.length());
+            // Characters are lowercased one by one, without the context-dependent rules of String.toLowerCase
+            normalized.codePoints().forEach(codePoint -> {
+                if (codePoint == 0x130) {
+                    lowered.append(String.valueOf((char) codePoint).toLowerCase(Locale.ROOT));
+                } else {
+                    lowered.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+            });
+            normalized = lowered.toString();
+        }
+        return normalized;
+    }
+
+    // Control characters other than tab, line feed and carriage return, which count as whitespace.
+    private static boolean isControl(int codePoint) {
+        if (codePoint == '\t' || codePoint == '\n' || codePoint == '\r') {
+            return false;
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.CONTROL || type == Character.FORMAT || type == Character.SURROGATE
+                || type == Character.PRIVATE_USE;
+    }
+
+    // Characters with the Unicode White_Space property.
+    private static boolean isWhitespace(int codePoint) {
+        return (codePoint >= 0x09 && codePoint <= 0x0D) || codePoint == 0x20 || codePoint == 0x85 || codePoint == 0xA0
+                || codePoint == 0x1680 || (codePoint >= 0x2000 && codePoint <= 0x200A) || codePoint == 0x2028
+                || codePoint == 0x2029 || codePoint == 0x202F || codePoint == 0x205F || codePoint == 0x3000;
+    }
+
+    // ASCII punctuation and symbols, and Unicode punctuation.
+    private static boolean isPunctuation(int codePoint) {
+        if (codePoint < 0x80) {
+            return (codePoint >= 0x21 && codePoint <= 0x2F) || (codePoint >= 0x3A && codePoint <= 0x40)
+                    || (codePoint >= 0x5B && codePoint <= 0x60) || (codePoint >= 0x7B && codePoint <= 0x7E);
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION
+                || type == Character.START_PUNCTUATION || type == Character.END_PUNCTUATION
+                || type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+                || type == Character.OTHER_PUNCTUATION;
+    }
+
+    // CJK ideographs, which are split into words of their own.
+    private static boolean isChineseChar(int codePoint) {
+        return (codePoint >= 0x4E00 && codePoint <= 0x9FFF) || (codePoint >= 0x3400 && codePoint <= 0x4DBF)
+                || (codePoint >= 0x20000 && codePoint <= 0x2A6DF) || (codePoint >= 0x2A700 && codePoint <= 0x2B73F)
+                || (codePoint >= 0x2B740 && codePoint <= 0x2B81F) || (codePoint >= 0x2B920 && codePoint <= 0x2CEAF)
+                || (codePoint >= 0xF900 && codePoint <= 0xFAFF) || (codePoint >= 0x2F800 && codePoint <= 0x2FA1F);
+    }
+
+    private static int specialTokenId(JsonObject specialTokens, String name) {
+        JsonObject token = object(specialTokens, name);
+        JsonArray ids = token.getAsJsonArray("ids");
+        require(ids.size() == 1, "special token " + name + " must map to a single id");
+        return ids.get(0).getAsInt();
+    }
+
+    private static JsonObject object(JsonObject parent, String name) {
+        JsonElement element = parent.get(name);
+        require(element != null && element.isJsonObject(), name + " is missing");
+        return element.getAsJsonObject();
+    }
+
+    private static String string(JsonObject parent, String name, String defaultValue) {
+        JsonElement element = parent.get(name);
+        return element == null || element.isJsonNull() ? defaultValue : element.getAsString();
+    }
+
+    private static boolean bool(JsonObject parent, String name, boolean defaultValue) {
+        JsonElement element = parent.get(name);
+        return element == null || element.isJsonNull() ? defaultValue : element.getAsBoolean();
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException("Unsupported tokenizer configuration: " + message);
+        }
+    }
+
+    // Growable buffer of token ids and word ids; when ids are not needed only the tokens are counted.
+    private static final class Output {
+        private final boolean keepIds;
+        private long[] ids;
+        private long[] wordIds;
+        private int size;
+        private long nextWordId;
+
+        Output(boolean keepIds) {
+            this.keepIds = keepIds;
+            this.ids = keepIds ? new long[64] : null;
+            this.wordIds = keepIds ? new long[64] : null;
+        }
+
+        void add(int id, long wordId) {
+            if (keepIds) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    wordIds = Arrays.copyOf(wordIds, size * 2);
+                }
+                ids[size] = id;
+                wordIds[size] = wordId;
+            }
+            size++;
+        }
+    }
+
+    // Character trie flattened into arrays: the children of a node are stored contiguously and sorted by character.
+    private static final class Trie {
+        private final int[] childStart;
+        private final int[] childEnd;
+        private final char[] edgeChars;
+        private final int[] edgeTargets;
+        private final int[] tokenIds;
+
+        private Trie(int[] childStart, int[] childEnd, char[] edgeChars, int[] edgeTargets, int[] tokenIds) {
+            this.childStart = childStart;
+            this.childEnd = childEnd;
+            this.edgeChars = edgeChars;
+            this.edgeTargets = edgeTargets;
+            this.tokenIds = tokenIds;
+        }
+
+        // Returns the child of the node reached through the given character, or -1 if there is none.
+        int child(int node, char c) {
+            int index = Arrays.binarySearch(edgeChars, childStart[node], childEnd[node], c);
+            return index < 0 ? -1 : edgeTargets[index];
+        }
+
+        // Builds the trie of the sorted words starting with the given prefix, keyed without the prefix.
+        static Trie build(List<String> sortedWords, int[] ids, String prefix) {
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+            for (int i = 0; i < sortedWords.size(); i++) {
+                String word = sortedWords.get(i);
+                if (word.startsWith(prefix) && word.length() > prefix.length()) {
+                    entries.add(Map.entry(word.substring(prefix.length()), ids[i]));
+                }
+            }
+
+            // Insertion in sorted order keeps the children of every node sorted by character
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(new Node());
+            for (Map.Entry<String, Integer> entry : entries) {
+                Node node = nodes.get(0);
+                for (char c : entry.getKey().toCharArray()) {
+                    Node child = node.children.isEmpty() || node.chars.get(node.chars.size() - 1) != c
+                            ? null
+                            : node.children.get(node.children.size() - 1);
+                    if (child == null) {
+                        child = new Node();
+                        child.index = nodes.size();
+                        nodes.add(child);
+                        node.chars.add(c);
+                        node.children.add(child);
+                    }
+                    node = child;
+                }
+                node.tokenId = entry.getValue();
+            }
+
+            int[] childStart = new int[nodes.size()];
+            int[] childEnd = new int[nodes.size()];
+            char[] edgeChars = new char[nodes.size() - 1];
+            int[] edgeTargets = new int[nodes.size() - 1];
+            int[] tokenIds = new int[nodes.size()];
+            int edge = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                tokenIds[i] = node.tokenId;
+                childStart[i] = edge;
+                for (int j = 0; j < node.children.size(); j++, edge++) {
+                    edgeChars[edge] = node.chars.get(j);
+                    edgeTargets[edge] = node.children.get(j).index;
+                }
+                childEnd[i] = edge;
+            }
+            return new Trie(childStart, childEnd, edgeChars, edgeTargets, tokenIds);
+        }
+
+        // Mutable node used while building the trie.
+        private static final class Node {
+            private final List<Character> chars = new ArrayList<>();
+            private final List<Node> children = new ArrayList<>();
+            private int index;
+            private int tokenId = NO_TOKEN;
+        }
+    }
+}
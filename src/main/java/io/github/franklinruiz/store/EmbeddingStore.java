@@ -1,5 +1,6 @@
 package io.github.franklinruiz.store;
 
+import io.github.franklinruiz.encoder.EncoderConfig;
 import io.github.franklinruiz.encoder.MiniLMEmbedder;
 import io.github.franklinruiz.utils.CosineSimilarityUtil;
 
@@ -10,16 +11,19 @@ import java.util.function.ToDoubleFunction;
  * EmbeddingStore is a storage and retrieval system for items and their embeddings.
  * It allows you to add items, compute their embeddings using a MiniLMEmbedder, and find relevant items
  * based on a query embedding using cosine similarity.
+ * Embeddings are kept as the float vectors produced by the model, which takes half the memory of double vectors;
+ * double query embeddings are still accepted and narrowed to floats.
+ * Closing the store releases its embedder.
  *
  * @param <T> The type of items stored, which must implement the {@link Embeddable} interface to provide text representation.
  */
-public class EmbeddingStore<T extends Embeddable> {
+public class EmbeddingStore<T extends Embeddable> implements AutoCloseable {
 
     // List of items stored in the EmbeddingStore.
     private final List<T> items;
 
     // List of embeddings corresponding to the stored items.
-    private final List<double[]> embeddings;
+    private final List<float[]> embeddings;
 
     // MiniLMEmbedder used to compute embeddings for the items.
     private final MiniLMEmbedder embedder;
@@ -42,8 +46,19 @@ public class EmbeddingStore<T extends Embeddable> {
      * @return A new instance of EmbeddingStore initialized with a default MiniLMEmbedder.
      */
     public static <T extends Embeddable> EmbeddingStore<T> initialize() {
+        return initialize(EncoderConfig.defaults());
+    }
+
+    /**
+     * Initializes an EmbeddingStore with a default MiniLMEmbedder whose model session uses the given configuration.
+     *
+     * @param config EncoderConfig with the session options and inference parallelism to use.
+     * @param <T>    The type of items to store, which must implement {@link Embeddable}.
+     * @return A new instance of EmbeddingStore initialized with a default MiniLMEmbedder.
+     */
+    public static <T extends Embeddable> EmbeddingStore<T> initialize(EncoderConfig config) {
         try {
-            MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel();
+            MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel(config);
             return new EmbeddingStore<>(embedder);
         } catch (Exception e) {
             throw new IllegalArgumentException("Error initializing EmbeddingStore", e);
@@ -57,7 +72,7 @@ public class EmbeddingStore<T extends Embeddable> {
      */
     public void addItem(T item) {
         try {
-            double[] embedding = embedder.embed(item.getText());
+            float[] embedding = embedder.embedFloat(item.getText());
             items.add(item);
             embeddings.add(embedding);
         } catch (Exception e) {
@@ -67,12 +82,29 @@ public class EmbeddingStore<T extends Embeddable> {
 
     /**
      * Finds the most relevant items in the store based on their similarity to the query embedding.
+     * The query is narrowed to floats, the precision at which the embeddings are stored.
      *
      * @param queryEmbedding The query embedding to compare against the stored embeddings.
      * @param maxResults     The maximum number of relevant items to retrieve.
      * @return A list of {@link EmbeddingMatch} objects, sorted by similarity in descending order.
      */
     public List<EmbeddingMatch<T>> findRelevant(double[] queryEmbedding, int maxResults) {
+        float[] query = new float[queryEmbedding.length];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = (float) queryEmbedding[i];
+        }
+        return findRelevant(query, maxResults);
+    }
+
+    /**
+     * Finds the most relevant items in the store based on their similarity to the query embedding,
+     * e.g. one computed with {@link MiniLMEmbedder#embedFloat(String)}.
+     *
+     * @param queryEmbedding The query embedding to compare against the stored embeddings.
+     * @param maxResults     The maximum number of relevant items to retrieve.
+     * @return A list of {@link EmbeddingMatch} objects, sorted by similarity in descending order.
+     */
+    public List<EmbeddingMatch<T>> findRelevant(float[] queryEmbedding, int maxResults) {
         // Priority queue to maintain the top relevant matches, sorted by score in descending order.
         PriorityQueue<EmbeddingMatch<T>> matches = new PriorityQueue<>(
                 Comparator.comparingDouble((ToDoubleFunction<EmbeddingMatch<T>>) EmbeddingMatch::getScore).reversed()
@@ -80,7 +112,7 @@ public class EmbeddingStore<T extends Embeddable> {
 
         // Compute similarity for each embedding in the store.
         for (int i = 0; i < embeddings.size(); i++) {
-            double similarity = CosineSimilarityUtil.calculate(queryEmbedding, embeddings.get(i));
+            float similarity = CosineSimilarityUtil.calculate(queryEmbedding, embeddings.get(i));
             matches.offer(new EmbeddingMatch<>(items.get(i), similarity));
         }
 
@@ -100,4 +132,12 @@ public class EmbeddingStore<T extends Embeddable> {
     public List<T> getAllItems() {
         return new ArrayList<>(items);
     }
-}
\ No newline at end of file
+
+    /**
+     * Releases the embedder of the store. The model is freed once no other store or embedder shares it.
+     */
+    @Override
+    public void close() {
+        embedder.close();
+    }
+}
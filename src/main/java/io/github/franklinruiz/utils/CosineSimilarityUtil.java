@@ -4,6 +4,7 @@ package io.github.franklinruiz.utils;
  * Utility class for calculating the cosine similarity between two vectors.
  * Cosine similarity measures the cosine of the angle between two non-zero vectors
  * in a multi-dimensional space, indicating how similar they are.
+ * The computation runs on {@link VectorKernels}, which use SIMD instructions when the Java Vector API is available.
  */
 public class CosineSimilarityUtil {
 
@@ -27,18 +28,36 @@ public class CosineSimilarityUtil {
             throw new IllegalArgumentException("Vectors must be of the same length.");
         }
 
-        double dotProduct = 0.0;
-        double normVec1 = 0.0;
-        double normVec2 = 0.0;
-
         // Compute the dot product and the norms of each vector
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            normVec1 += vec1[i] * vec1[i];
-            normVec2 += vec2[i] * vec2[i];
+        double dotProduct = VectorKernels.dot(vec1, vec2);
+        double normVec1 = VectorKernels.norm(vec1);
+        double normVec2 = VectorKernels.norm(vec2);
+
+        // Calculate the cosine similarity
+        return dotProduct / (normVec1 * normVec2);
+    }
+
+    /**
+     * Calculates the cosine similarity between two float vectors, such as the embeddings produced by the model.
+     * Float vectors take half the memory of double vectors and are processed twice as fast by the SIMD kernels.
+     *
+     * @param vec1 The first vector, represented as an array of floats.
+     * @param vec2 The second vector, represented as an array of floats.
+     * @return A float value representing the cosine similarity between the two vectors.
+     * The result ranges from -1 (completely opposite) to 1 (completely identical).
+     * @throws IllegalArgumentException If the input vectors are not of the same length.
+     */
+    public static float calculate(float[] vec1, float[] vec2) {
+        if (vec1.length != vec2.length) {
+            throw new IllegalArgumentException("Vectors must be of the same length.");
         }
 
+        // Compute the dot product and the norms of each vector
+        float dotProduct = VectorKernels.dot(vec1, vec2);
+        float normVec1 = VectorKernels.norm(vec1);
+        float normVec2 = VectorKernels.norm(vec2);
+
         // Calculate the cosine similarity
-        return dotProduct / (Math.sqrt(normVec1) * Math.sqrt(normVec2));
+        return dotProduct / (normVec1 * normVec2);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package io.github.franklinruiz.utils;
+
+/**
+ * Numeric kernels over dense vectors, implemented either with scalar loops or with the Java Vector API.
+ * Callers go through {@link VectorKernels}, which selects the implementation once at startup.
+ * Vectors passed to the binary operations have already been checked to have the same length.
+ */
+interface Kernels {
+
+    float dot(float[] a, float[] b);
+
+    double dot(double[] a, double[] b);
+
+    // y += alpha * x
+    void axpy(float alpha, float[] x, float[] y);
+
+    // y += alpha * x
+    void axpy(double alpha, double[] x, double[] y);
+
+    // x *= alpha
+    void scale(float alpha, float[] x);
+
+    // x *= alpha
+    void scale(double alpha, double[] x);
+
+    // Column-wise mean of rows consecutive rows of the given number of columns starting at offset.
+    float[] meanRows(float[] matrix, int offset, int rows, int columns);
+
+    // Column-wise mean of rows consecutive rows of the given number of columns starting at offset.
+    double[] meanRows(double[] matrix, int offset, int rows, int columns);
+}
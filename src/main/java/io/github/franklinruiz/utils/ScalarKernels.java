@@ -0,0 +1,77 @@
+package io.github.franklinruiz.utils;
+
+/**
+ * Kernels implemented with plain loops, used when the Java Vector API is not available.
+ */
+final class ScalarKernels implements Kernels {
+
+    @Override
+    public float dot(float[] a, float[] b) {
+        float sum = 0.0F;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, float[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    @Override
+    public void scale(float alpha, float[] x) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] *= alpha;
+        }
+    }
+
+    @Override
+    public void scale(double alpha, double[] x) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] *= alpha;
+        }
+    }
+
+    @Override
+    public float[] meanRows(float[] matrix, int offset, int rows, int columns) {
+        float[] mean = new float[columns];
+        for (int i = 0, base = offset; i < rows; i++, base += columns) {
+            for (int j = 0; j < columns; j++) {
+                mean[j] += matrix[base + j];
+            }
+        }
+        scale(1.0F / rows, mean);
+        return mean;
+    }
+
+    @Override
+    public double[] meanRows(double[] matrix, int offset, int rows, int columns) {
+        double[] mean = new double[columns];
+        for (int i = 0, base = offset; i < rows; i++, base += columns) {
+            for (int j = 0; j < columns; j++) {
+                mean[j] += matrix[base + j];
+            }
+        }
+        scale(1.0 / rows, mean);
+        return mean;
+    }
+}
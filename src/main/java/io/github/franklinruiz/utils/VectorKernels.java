@@ -0,0 +1,194 @@
+package io.github.franklinruiz.utils;
+
+import java.lang.reflect.Method;
+
+/**
+ * VectorKernels provides the numeric loops run for every token of every inference and for every candidate of
+ * every search: dot product, norm, axpy, scaling and column-wise mean, over {@code float} and {@code double} vectors.
+ * <p>
+ * When the {@code jdk.incubator.vector} module is available, i.e. when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}, the kernels use the Java Vector API and run on the SIMD units of
+ * the CPU. Otherwise, or when the {@value #SCALAR_PROPERTY} system property is set to {@code true},
+ * they fall back to scalar loops. Both implementations give the same results up to floating-point rounding.
+ */
+public final class VectorKernels {
+
+    /**
+     * System property that forces the scalar kernels even when the Java Vector API is available.
+     */
+    public static final String SCALAR_PROPERTY = "minilm.kernels.scalar";
+
+    // Name of the module holding the Java Vector API.
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    // Implementation based on the Java Vector API.
+    private static final String SIMD_KERNELS = "io.github.franklinruiz.utils.SimdKernels";
+
+    // Implementation selected once for the lifetime of the JVM.
+    private static final Kernels KERNELS = loadKernels();
+
+    private VectorKernels() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Checks whether the kernels run on the Java Vector API rather than on scalar loops.
+     *
+     * @return true if the SIMD implementation is in use.
+     */
+    public static boolean isAccelerated() {
+        return !(KERNELS instanceof ScalarKernels);
+    }
+
+    /**
+     * Computes the dot product of two vectors.
+     *
+     * @param a The first vector.
+     * @param b The second vector.
+     * @return The sum of the products of the elements of both vectors.
+     * @throws IllegalArgumentException If the vectors are not of the same length.
+     */
+    public static float dot(float[] a, float[] b) {
+        checkLengths(a.length, b.length);
+        return KERNELS.dot(a, b);
+    }
+
+    /**
+     * Computes the dot product of two vectors.
+     *
+     * @param a The first vector.
+     * @param b The second vector.
+     * @return The sum of the products of the elements of both vectors.
+     * @throws IllegalArgumentException If the vectors are not of the same length.
+     */
+    public static double dot(double[] a, double[] b) {
+        checkLengths(a.length, b.length);
+        return KERNELS.dot(a, b);
+    }
+
+    /**
+     * Computes the Euclidean norm of a vector.
+     *
+     * @param x The vector.
+     * @return The square root of the sum of the squares of its elements.
+     */
+    public static float norm(float[] x) {
+        return (float) Math.sqrt(KERNELS.dot(x, x));
+    }
+
+    /**
+     * Computes the Euclidean norm of a vector.
+     *
+     * @param x The vector.
+     * @return The square root of the sum of the squares of its elements.
+     */
+    public static double norm(double[] x) {
+        return Math.sqrt(KERNELS.dot(x, x));
+    }
+
+    /**
+     * Adds a multiple of one vector to another in place: {@code y += alpha * x}.
+     *
+     * @param alpha The factor applied to x.
+     * @param x     The vector to add.
+     * @param y     The vector updated in place.
+     * @throws IllegalArgumentException If the vectors are not of the same length.
+     */
+    public static void axpy(float alpha, float[] x, float[] y) {
+        checkLengths(x.length, y.length);
+        KERNELS.axpy(alpha, x, y);
+    }
+
+    /**
+     * Adds a multiple of one vector to another in place: {@code y += alpha * x}.
+     *
+     * @param alpha The factor applied to x.
+     * @param x     The vector to add.
+     * @param y     The vector updated in place.
+     * @throws IllegalArgumentException If the vectors are not of the same length.
+     */
+    public static void axpy(double alpha, double[] x, double[] y) {
+        checkLengths(x.length, y.length);
+        KERNELS.axpy(alpha, x, y);
+    }
+
+    /**
+     * Multiplies a vector by a factor in place: {@code x *= alpha}.
+     *
+     * @param alpha The factor.
+     * @param x     The vector updated in place.
+     */
+    public static void scale(float alpha, float[] x) {
+        KERNELS.scale(alpha, x);
+    }
+
+    /**
+     * Multiplies a vector by a factor in place: {@code x *= alpha}.
+     *
+     * @param alpha The factor.
+     * @param x     The vector updated in place.
+     */
+    public static void scale(double alpha, double[] x) {
+        KERNELS.scale(alpha, x);
+    }
+
+    /**
+     * Computes the column-wise mean of consecutive rows of a row-major matrix, e.g. the mean of token embeddings.
+     *
+     * @param matrix  The row-major matrix.
+     * @param offset  The index of the first element of the first row.
+     * @param rows    The number of rows to average, at least one.
+     * @param columns The number of columns of each row.
+     * @return A new vector of the given number of columns holding the mean of the rows.
+     * @throws IllegalArgumentException If there are no rows or the rows do not fit in the matrix.
+     */
+    public static float[] meanRows(float[] matrix, int offset, int rows, int columns) {
+        checkRows(matrix.length, offset, rows, columns);
+        return KERNELS.meanRows(matrix, offset, rows, columns);
+    }
+
+    /**
+     * Computes the column-wise mean of consecutive rows of a row-major matrix, e.g. the mean of token embeddings.
+     *
+     * @param matrix  The row-major matrix.
+     * @param offset  The index of the first element of the first row.
+     * @param rows    The number of rows to average, at least one.
+     * @param columns The number of columns of each row.
+     * @return A new vector of the given number of columns holding the mean of the rows.
+     * @throws IllegalArgumentException If there are no rows or the rows do not fit in the matrix.
+     */
+    public static double[] meanRows(double[] matrix, int offset, int rows, int columns) {
+        checkRows(matrix.length, offset, rows, columns);
+        return KERNELS.meanRows(matrix, offset, rows, columns);
+    }
+
+    // Uses the Vector API when its module is available and has not been disabled, and scalar loops otherwise.
+    private static Kernels loadKernels() {
+        if (Boolean.getBoolean(SCALAR_PROPERTY) || ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return new ScalarKernels();
+        }
+        // Loaded reflectively so that this class never links against the module when it is absent
+        try {
+            Class<?> simdKernels = Class.forName(SIMD_KERNELS);
+            Method isSupported = simdKernels.getDeclaredMethod("isSupported");
+            if (!(boolean) isSupported.invoke(null)) {
+                return new ScalarKernels();
+            }
+            return (Kernels) simdKernels.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarKernels();
+        }
+    }
+
+    private static void checkLengths(int length, int otherLength) {
+        if (length != otherLength) {
+            throw new IllegalArgumentException("Vectors must be of the same length.");
+        }
+    }
+
+    private static void checkRows(int length, int offset, int rows, int columns) {
+        if (rows <= 0 || columns < 0 || offset < 0 || offset + (long) rows * columns > length) {
+            throw new IllegalArgumentException("Rows must be within the matrix.");
+        }
+    }
+}
@@ -33,4 +33,15 @@ class CosineSimilarityUtilTest {
         double similarity = CosineSimilarityUtil.calculate(vec1, vec2);
         assertEquals(0.0, similarity, 1e-6, "Cosine similarity of orthogonal vectors should be 0.0");
     }
+
+    @Test
+    void testFloatVectors() {
+        float[] vec1 = {1.0f, 2.0f, 3.0f};
+        float[] vec2 = {2.0f, 4.0f, 6.0f};
+        float[] vec3 = {-3.0f, 0.0f, 1.0f};
+
+        assertEquals(1.0f, CosineSimilarityUtil.calculate(vec1, vec2), 1e-6f, "Parallel float vectors should have similarity 1.0");
+        assertEquals(CosineSimilarityUtil.calculate(new double[]{1, 2, 3}, new double[]{-3, 0, 1}),
+                CosineSimilarityUtil.calculate(vec1, vec3), 1e-6, "Float and double similarities should match");
+    }
 }
@@ -29,16 +29,40 @@ class EmbeddingStoreTest {
             store.addItem(segment1);
             store.addItem(segment2);
 
-            MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel();
-            double[] queryEmbedding = embedder.embed("Hello again");
+            try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+                double[] queryEmbedding = embedder.embed("Hello again");
 
-            double[] firstEmbedding = embedder.embed(segment1.getText());
-            assertEquals(firstEmbedding.length, queryEmbedding.length, "Embedding lengths must match.");
+                double[] firstEmbedding = embedder.embed(segment1.getText());
+                assertEquals(firstEmbedding.length, queryEmbedding.length, "Embedding lengths must match.");
 
-            List<EmbeddingMatch<TextSegment>> results = store.findRelevant(queryEmbedding, 2);
+                List<EmbeddingMatch<TextSegment>> results = store.findRelevant(queryEmbedding, 2);
 
-            assertNotNull(results, "Results should not be null");
-            assertEquals(2, results.size(), "Should retrieve the correct number of items");
+                assertNotNull(results, "Results should not be null");
+                assertEquals(2, results.size(), "Should retrieve the correct number of items");
+            }
         });
     }
+
+    @Test
+    void testFindRelevantWithFloatQuery() {
+        EmbeddingStore<TextSegment> store = EmbeddingStore.initialize();
+        store.addItem(new TextSegment("The cat sleeps on the sofa"));
+        store.addItem(new TextSegment("Stock markets fell sharply today"));
+
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+            float[] floatQuery = embedder.embedFloat("A kitten is napping");
+            double[] doubleQuery = embedder.embed("A kitten is napping");
+            for (int i = 0; i < floatQuery.length; i++) {
+                assertEquals(floatQuery[i], doubleQuery[i], "The double embedding should be the widened float embedding");
+            }
+
+            List<EmbeddingMatch<TextSegment>> floatResults = store.findRelevant(floatQuery, 2);
+            List<EmbeddingMatch<TextSegment>> doubleResults = store.findRelevant(doubleQuery, 2);
+            assertEquals("The cat sleeps on the sofa", floatResults.get(0).getItem().getText(), "The closest item should come first");
+            for (int i = 0; i < floatResults.size(); i++) {
+                assertSame(floatResults.get(i).getItem(), doubleResults.get(i).getItem(), "Float and double queries should rank alike");
+                assertEquals(floatResults.get(i).getScore(), doubleResults.get(i).getScore(), 1e-6, "Scores should match");
+            }
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package io.github.franklinruiz;
+
+import io.github.franklinruiz.encoder.LengthBucketedBatchScheduler;
+import io.github.franklinruiz.encoder.OnnxBertEncoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LengthBucketedBatchSchedulerTest {
+
+    private OnnxBertEncoder initializeEncoder() {
+        InputStream modelStream = getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2.onnx");
+        InputStream tokenizerStream = getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2-tokenizer.json");
+        return new OnnxBertEncoder(modelStream, tokenizerStream, OnnxBertEncoder.PoolingMode.MEAN);
+    }
+
+    @Test
+    void testEmbedAllKeepsInputOrder() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            LengthBucketedBatchScheduler scheduler = new LengthBucketedBatchScheduler(encoder, new int[]{8, 32}, 2);
+            List<String> texts = List.of(
+                    "The Eiffel Tower is located in Paris and was completed in 1889 for the World's Fair.",
+                    "Hi",
+                    "Berlin is the capital of Germany.",
+                    "Hello world"
+            );
+
+            List<OnnxBertEncoder.EmbeddingAndTokenCount> results = scheduler.embedAll(texts);
+
+            assertEquals(texts.size(), results.size(), "Scheduler should return one result per text");
+            for (int i = 0; i < texts.size(); i++) {
+                OnnxBertEncoder.EmbeddingAndTokenCount single = encoder.embed(texts.get(i));
+                assertEquals(single.tokenCount, results.get(i).tokenCount, "Results should keep the input order");
+                assertArrayEquals(single.embedding, results.get(i).embedding, 1e-4f,
+                        "Scheduled embedding should match the single-text embedding");
+            }
+        }
+    }
+
+    @Test
+    void testPaddingEfficiency() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            LengthBucketedBatchScheduler scheduler = new LengthBucketedBatchScheduler(encoder);
+            assertEquals(1.0, scheduler.getPaddingEfficiency(), "Efficiency should be 1.0 before any batch");
+
+            scheduler.embedAll(List.of("Hi", "Hello world", "Berlin is the capital of Germany."));
+
+            assertTrue(scheduler.getRealTokens() > 0, "Real tokens should be recorded");
+            assertTrue(scheduler.getPaddedTokens() >= scheduler.getRealTokens(), "Padded tokens include real tokens");
+            double efficiency = scheduler.getPaddingEfficiency();
+            assertTrue(efficiency > 0.0 && efficiency <= 1.0, "Efficiency should be in (0, 1]");
+
+            scheduler.resetMetrics();
+            assertEquals(0, scheduler.getPaddedTokens(), "Metrics should be reset");
+        }
+    }
+}
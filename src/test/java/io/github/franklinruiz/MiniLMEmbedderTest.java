@@ -1,26 +1,379 @@
 package io.github.franklinruiz;
 
+import ai.onnxruntime.OrtSession;
+import io.github.franklinruiz.encoder.CacheKeyStrategy;
+import io.github.franklinruiz.encoder.EncoderConfig;
+import io.github.franklinruiz.encoder.MicroBatchCoalescer;
 import io.github.franklinruiz.encoder.MiniLMEmbedder;
+import io.github.franklinruiz.encoder.ModelRegistry;
+import io.github.franklinruiz.encoder.OnnxBertEncoder;
+import io.github.franklinruiz.encoder.OverflowStrategy;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MiniLMEmbedderTest {
     @Test
     void testGetDefaultModel() {
         assertDoesNotThrow(() -> {
-            MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel();
-            assertNotNull(embedder, "Default model should not be null");
+            try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+                assertNotNull(embedder, "Default model should not be null");
+            }
         });
     }
 
     @Test
     void testEmbed() {
         assertDoesNotThrow(() -> {
-            MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel();
-            double[] embedding = embedder.embed("Hello world");
-            assertNotNull(embedding, "Embedding should not be null");
-            assertTrue(embedding.length > 0, "Embedding should have a valid length");
+            try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+                double[] embedding = embedder.embed("Hello world");
+                assertNotNull(embedding, "Embedding should not be null");
+                assertTrue(embedding.length > 0, "Embedding should have a valid length");
+            }
+        });
+    }
+
+    @Test
+    void testGetDefaultModelWithEncoderConfig() throws Exception {
+        EncoderConfig config = EncoderConfig.builder()
+                .intraOpNumThreads(1)
+                .interOpNumThreads(1)
+                .optimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT)
+                .executionMode(OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL)
+                .memoryPatternOptimization(true)
+                .cpuArenaAllocator(false)
+                .maxConcurrentInferences(2)
+                .build();
+
+        assertDoesNotThrow(() -> {
+            try (
+                    MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel(config);
+                    MiniLMEmbedder reference = MiniLMEmbedder.getDefaultModel()
+            ) {
+                double[] embedding = embedder.embed("Hello world");
+                assertArrayEquals(reference.embed("Hello world"), embedding, 1e-4,
+                        "Session options should not change the embeddings");
+            }
+        });
+
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            EncoderConfig.Builder builder = EncoderConfig.builder().sessionOptions(options).intraOpNumThreads(1);
+            assertThrows(IllegalArgumentException.class, builder::build,
+                    "Custom session options should not be combined with session settings");
+        }
+    }
+
+    @Test
+    void testEmbedBatch() {
+        assertDoesNotThrow(() -> {
+            try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+                List<double[]> embeddings = embedder.embedBatch(List.of("Hello world", "Goodbye world"));
+                assertEquals(2, embeddings.size(), "Batch should return one embedding per text");
+                assertArrayEquals(embedder.embed("Goodbye world"), embeddings.get(1), 1e-6,
+                        "Batched embeddings should keep the input order");
+            }
         });
     }
+
+    @Test
+    void testConcurrentEmbedScaling() throws Exception {
+        int maxConcurrentInferences = 2;
+        int threads = 8;
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder()
+                .encoderConfig(EncoderConfig.builder().maxConcurrentInferences(maxConcurrentInferences).build())
+                .sharedModel(false)
+                .build()) {
+            double[] expected = embedder.embed("Concurrent embedding reference sentence");
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<double[]>> futures = new ArrayList<>();
+                for (int i = 0; i < 48; i++) {
+                    // Unique texts so that every call misses the cache and runs inference
+                    String text = "Sentence number " + i + " embedded with " + threads + " threads";
+                    futures.add(executor.submit(() -> embedder.embed(text)));
+                }
+                for (Future<double[]> future : futures) {
+                    assertEquals(expected.length, future.get().length, "Embedding lengths must match.");
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertArrayEquals(expected, embedder.embed("Concurrent embedding reference sentence"), 1e-6,
+                    "Concurrent use should not change the embeddings");
+            int peak = embedder.getEncoder().getPeakConcurrentInferences();
+            assertTrue(peak >= 1 && peak <= maxConcurrentInferences,
+                    "Concurrent inference calls should be bounded by the permits, but " + peak + " ran at once");
+        }
+    }
+
+    @Test
+    void testEmbedAsync() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            try (MiniLMEmbedder embedder = MiniLMEmbedder.builder()
+                    .encoderConfig(EncoderConfig.builder().maxConcurrentInferences(2).build())
+                    .asyncExecutor(executor)
+                    .build()) {
+                CompletableFuture<double[]> first = embedder.embedAsync("Hello world");
+                CompletableFuture<List<double[]>> batch = embedder.embedBatchAsync(List.of("Hello world", "Goodbye world"));
+                double[] expected = embedder.embed("Hello world");
+
+                assertArrayEquals(expected, first.get(30, TimeUnit.SECONDS), 1e-6,
+                        "Asynchronous embeddings should match the synchronous ones");
+                assertArrayEquals(expected, batch.get(30, TimeUnit.SECONDS).get(0), 1e-6,
+                        "Asynchronous batches should keep the input order");
+                assertTrue(embedder.embedAsync("Hello world").isDone(), "Cached texts should complete immediately");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testMicroBatching() throws Exception {
+        try (
+                MiniLMEmbedder embedder = MiniLMEmbedder.builder()
+                        .encoderConfig(EncoderConfig.builder().maxConcurrentInferences(4).build())
+                        .microBatching(16, Duration.ofMillis(20))
+                        .build();
+                MiniLMEmbedder reference = MiniLMEmbedder.getDefaultModel()
+        ) {
+            int texts = 32;
+
+            ExecutorService executor = Executors.newFixedThreadPool(texts);
+            try {
+                List<Future<double[]>> futures = new ArrayList<>();
+                for (int i = 0; i < texts; i++) {
+                    String text = "Search query number " + i;
+                    futures.add(executor.submit(() -> embedder.embed(text)));
+                }
+                for (int i = 0; i < texts; i++) {
+                    assertArrayEquals(reference.embed("Search query number " + i), futures.get(i).get(), 1e-5,
+                            "Coalesced embeddings should match the individual ones");
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            MicroBatchCoalescer coalescer = embedder.getMicroBatchCoalescer();
+            assertEquals(texts, coalescer.getRequestCount(), "Every cache miss should go through the coalescer");
+            assertTrue(coalescer.getBatchCount() < texts, "Concurrent requests should share batches");
+            assertTrue(coalescer.getAverageBatchSize() > 1.0, "Average batch size should exceed one");
+            assertTrue(coalescer.getLargestBatchSize() > 1, "Idle dispatchers should not split batches into single texts");
+        }
+    }
+
+    @Test
+    void testCountTokens() {
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.getDefaultModel()) {
+            String longText = "The quick brown fox jumps over the lazy dog. ".repeat(200);
+
+            assertEquals(4, embedder.countTokens("Hello world"), "Count should include the special tokens");
+            assertEquals(4, embedder.countTokens("  Hello   world "), "Whitespace should not change the count");
+            assertArrayEquals(new int[]{4, embedder.countTokens(longText), 4},
+                    embedder.countTokensBatch(List.of("Hello world", longText, "Goodbye world")),
+                    "Batched counts should match the individual ones");
+            assertEquals(50, embedder.countTokens(longText, 50), "Counting should stop at the limit");
+            assertEquals(4, embedder.countTokens("Hello world", 50), "Texts below the limit should be fully counted");
+            assertEquals(embedder.countTokens(longText), embedder.countTokens(longText, Integer.MAX_VALUE),
+                    "Limits too large for the prefix estimate should not overflow");
+            assertTrue(embedder.countTokens(longText) > 2000, "Long texts should not be truncated");
+            assertThrows(IllegalArgumentException.class, () -> embedder.countTokens("Hello world", 0),
+                    "A non-positive limit should be rejected even for cached counts");
+        }
+    }
+
+    @Test
+    void testRegistryLoadsModelsOutsideTheMap() throws Exception {
+        Supplier<OnnxBertEncoder> load = () -> new OnnxBertEncoder(
+                getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2.onnx"),
+                getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2-tokenizer.json"),
+                OnnxBertEncoder.PoolingMode.MEAN);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ModelRegistry.Lease> slow = CompletableFuture.supplyAsync(() ->
+                ModelRegistry.acquire("registry-test-slow", () -> {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return load.get();
+                }));
+        assertTrue(loading.await(10, TimeUnit.SECONDS), "The slow load should start");
+
+        // Loading another model, from a loader using the registry itself, must not wait for the slow load
+        try (ModelRegistry.Lease nested = ModelRegistry.acquire("registry-test-outer", () -> {
+            ModelRegistry.Lease inner = ModelRegistry.acquire("registry-test-inner", load);
+            inner.close();
+            return load.get();
+        })) {
+            assertEquals(384, nested.getEncoder().getDimensions(), "The other model should load while the slow one is loading");
+        }
+        release.countDown();
+        try (ModelRegistry.Lease lease = slow.get(30, TimeUnit.SECONDS)) {
+            assertEquals(1, ModelRegistry.getReferenceCount("registry-test-slow"), "The slow model should be registered once loaded");
+        }
+
+        assertThrows(IllegalStateException.class, () -> ModelRegistry.acquire("registry-test-failed", () -> {
+            throw new IllegalStateException("Cannot load");
+        }), "A failed load should be reported to the caller");
+        assertEquals(0, ModelRegistry.getReferenceCount("registry-test-failed"), "A failed load should not stay registered");
+    }
+
+    @Test
+    void testSharedModelIsClosedWithLastEmbedder() {
+        // A configuration no other test uses, so that this test holds the only references to the model
+        EncoderConfig config = EncoderConfig.builder().maxConcurrentInferences(3).build();
+        MiniLMEmbedder first = MiniLMEmbedder.getDefaultModel(config);
+        MiniLMEmbedder second = MiniLMEmbedder.getDefaultModel(config);
+        OnnxBertEncoder encoder = first.getEncoder();
+
+        assertSame(encoder, second.getEncoder(), "Embedders with the same model should share the encoder");
+        first.close();
+        first.close();
+        assertFalse(encoder.isClosed(), "The encoder should stay open while an embedder uses it");
+        assertEquals(384, second.embed("Hello world").length, "The remaining embedder should still work");
+
+        second.close();
+        assertTrue(encoder.isClosed(), "The encoder should be closed with its last embedder");
+        assertThrows(IllegalStateException.class, () -> encoder.embed("Hello world"),
+                "A closed encoder should reject new inference");
+        assertThrows(IllegalStateException.class, () -> encoder.countTokens("Hello world"),
+                "A closed encoder should reject new tokenization");
+
+        try (MiniLMEmbedder reloaded = MiniLMEmbedder.getDefaultModel(config)) {
+            assertNotSame(encoder, reloaded.getEncoder(), "A closed model should be loaded again");
+            assertEquals(384, reloaded.embed("Hello world").length, "The reloaded model should work");
+        }
+    }
+
+    @Test
+    void testWarmUp() {
+        EncoderConfig config = EncoderConfig.builder().maxConcurrentInferences(2).build();
+        MiniLMEmbedder embedder = MiniLMEmbedder.builder().encoderConfig(config).sharedModel(false).build();
+        assertFalse(embedder.isReady(), "The embedder should not be ready before the warm-up");
+        embedder.warmUp();
+        assertTrue(embedder.isReady(), "The embedder should be ready after the warm-up");
+        assertEquals(384, embedder.embed("Hello world").length, "The warmed-up embedder should work");
+
+        embedder.close();
+        assertFalse(embedder.isReady(), "A closed embedder should not be ready");
+
+        try (MiniLMEmbedder warmedUp = MiniLMEmbedder.builder().encoderConfig(config).sharedModel(false).warmUp(true).build()) {
+            assertTrue(warmedUp.isReady(), "The builder should warm up the embedder");
+        }
+    }
+
+    @Test
+    void testOverflowStrategy() {
+        String blob = "Paste of a huge log file line with some words in it. ".repeat(40_000);
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder().overflowStrategy(OverflowStrategy.TRUNCATE_HEAD).build()) {
+            float[] expected = embedder.getEncoder().embed(blob, OverflowStrategy.TRUNCATE_HEAD).embedding;
+            assertArrayEquals(expected, embedder.embedFloat(blob), 1e-6f, "The embedder should truncate long texts");
+            assertArrayEquals(expected, embedder.embedBatchFloat(List.of(blob)).get(0), 1e-4f, "Batches should be truncated alike");
+            assertTrue(embedder.countTokens(blob) > 100_000, "Token counts should still cover the whole text");
+        }
+    }
+
+    @Test
+    void testCacheBoundsAndBypass() {
+        List<String> texts = List.of("first cached text", "second cached text", "third cached text", "fourth cached text");
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder().cacheCapacity(2).build()) {
+            embedder.embedBatch(texts);
+            assertEquals(2, embedder.getCacheSize(), "The cache should hold at most its capacity");
+            embedder.embed("uncached text", false);
+            embedder.embedBatch(List.of("another uncached text"), false);
+            assertEquals(2, embedder.getCacheSize(), "Bypassing calls should not fill the cache");
+            assertEquals(4, embedder.getCacheMissCount(), "Bypassing calls should not count as misses");
+        }
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder().cacheMaxBytes(4_096).build()) {
+            embedder.embedBatch(texts);
+            assertTrue(embedder.getCacheSize() < texts.size(), "The cache should evict entries over its byte budget");
+            assertTrue(embedder.getCacheBytes() > 0 && embedder.getCacheBytes() <= 4_096, "The cache should stay within its byte budget");
+        }
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder().cacheCapacity(0).build()) {
+            embedder.embed(texts.get(0));
+            embedder.embed(texts.get(0));
+            assertEquals(0, embedder.getCacheSize(), "A zero capacity should disable the cache");
+        }
+    }
+
+    @Test
+    void testContentHashCacheKeys() {
+        String document = "A long document whose text should not be retained by the cache. ".repeat(50);
+        try (MiniLMEmbedder hashed = MiniLMEmbedder.builder().cacheKeyStrategy(CacheKeyStrategy.CONTENT_HASH).build();
+             MiniLMEmbedder texts = MiniLMEmbedder.builder().build()) {
+            double[] first = hashed.embed(document);
+            assertArrayEquals(first, hashed.embed(document), "Hashed keys should find the cached embedding");
+            assertArrayEquals(first, hashed.embed(document + " "), "Hashed keys should be computed on normalized texts");
+            assertEquals(2, hashed.getCacheHitCount(), "Both repeated requests should hit the cache");
+
+            texts.embed(document);
+            assertTrue(hashed.getCacheBytes() + document.length() < texts.getCacheBytes(), "Hashed keys should not retain the text");
+            assertNotEquals(first[0], hashed.embed("A different text")[0], "Different texts should not share an entry");
+        }
+    }
+
+    @Test
+    void testConcurrentMissesShareInference() throws Exception {
+        int requests = 16;
+        try (MiniLMEmbedder embedder = MiniLMEmbedder.builder()
+                .microBatching(requests, Duration.ofMillis(50))
+                .build()) {
+            ExecutorService executor = Executors.newFixedThreadPool(requests);
+            try {
+                List<Future<double[]>> futures = new ArrayList<>();
+                for (int i = 0; i < requests; i++) {
+                    futures.add(executor.submit(() -> embedder.embed("Trending search query")));
+                }
+                double[] expected = futures.get(0).get();
+                for (Future<double[]> future : futures) {
+                    assertArrayEquals(expected, future.get(), "Every request should receive the same embedding");
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(1, embedder.getMicroBatchCoalescer().getRequestCount(), "The text should be embedded once");
+            assertEquals(requests, embedder.getCacheHitCount() + embedder.getCacheMissCount(),
+                    "Every request should be counted once as a hit or a miss");
+            assertTrue(embedder.getCacheHitCount() + embedder.getDeduplicatedRequestCount() <= requests - 1,
+                    "Only the request running the inference should neither hit the cache nor join the inference");
+
+            float[] destination = new float[384];
+            embedder.embedInto("Query embedded in place", destination);
+            float[] embedded = destination.clone();
+            Arrays.fill(destination, 0.0F);
+            assertArrayEquals(embedded, embedder.embedFloat("Query embedded in place"),
+                    "In-place misses should be cached like the others, independently of the destination");
+
+            CompletableFuture<float[]> cancelled = embedder.embedFloatAsync("Another trending query");
+            CompletableFuture<float[]> joined = embedder.embedFloatAsync("Another trending query");
+            cancelled.cancel(false);
+            assertEquals(384, joined.get(10, TimeUnit.SECONDS).length, "Cancelling a request should not cancel the shared inference");
+        }
+
+        MiniLMEmbedder closed = MiniLMEmbedder.builder().sharedModel(false).asyncExecutor(Runnable::run).build();
+        closed.close();
+        CompletableFuture<float[]> failed = closed.embedFloatAsync("Query after close");
+        Exception e = assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause(), "Failures should propagate to the request");
+        assertThrows(IllegalStateException.class, () -> closed.embed("Query after close"), "A failed inference should not stay in flight");
+        assertThrows(IllegalStateException.class, () -> closed.embedInto("Query after close", new float[384]),
+                "A failed in-place inference should not stay in flight either");
+    }
 }
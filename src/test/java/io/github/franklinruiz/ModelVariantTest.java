@@ -0,0 +1,106 @@
+package io.github.franklinruiz;
+
+import io.github.franklinruiz.encoder.MiniLMEmbedder;
+import io.github.franklinruiz.encoder.ModelResources;
+import io.github.franklinruiz.encoder.ModelVariant;
+import io.github.franklinruiz.utils.CosineSimilarityUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares the optional model variants against the FP32 model, printing an accuracy-vs-latency report.
+ * Skipped unless the variants have been produced with scripts/quantize_model.py and scripts/export_pooled_model.py.
+ */
+class ModelVariantTest {
+
+    private static final List<String> SENTENCES = List.of(
+            "Paris is the capital of France.",
+            "The Eiffel Tower is located in Paris.",
+            "Berlin is the capital of Germany.",
+            "Artificial intelligence is transforming industries worldwide.",
+            "AI is revolutionizing industries across the globe.",
+            "A balanced diet and daily exercise significantly improve mental health.",
+            "The Football World Cup is one of the most anticipated sports events of the year.",
+            "I am extremely disappointed."
+    );
+
+    private static boolean isAvailable(ModelVariant variant) {
+        try {
+            ModelResources.locate(variant.getResourceName());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    void testMissingVariantIsReported() {
+        assumeTrue(!isAvailable(ModelVariant.INT8), "INT8 model is available");
+        assertThrows(IllegalArgumentException.class, () -> MiniLMEmbedder.getModel(ModelVariant.INT8));
+    }
+
+    @Test
+    void testInt8AccuracyAndLatency() {
+        assumeTrue(isAvailable(ModelVariant.INT8), "INT8 model not found, run scripts/quantize_model.py");
+        try (
+                MiniLMEmbedder fp32 = MiniLMEmbedder.getModel(ModelVariant.FP32);
+                MiniLMEmbedder int8 = MiniLMEmbedder.getModel(ModelVariant.INT8)
+        ) {
+            double[][] fp32Embeddings = new double[SENTENCES.size()][];
+            double[][] int8Embeddings = new double[SENTENCES.size()][];
+            long fp32Nanos = time(fp32, fp32Embeddings);
+            long int8Nanos = time(int8, int8Embeddings);
+
+            double minSelfSimilarity = 1.0;
+            double maxScoreDelta = 0.0;
+            for (int i = 0; i < SENTENCES.size(); i++) {
+                minSelfSimilarity = Math.min(minSelfSimilarity, CosineSimilarityUtil.calculate(fp32Embeddings[i], int8Embeddings[i]));
+                for (int j = i + 1; j < SENTENCES.size(); j++) {
+                    double fp32Score = CosineSimilarityUtil.calculate(fp32Embeddings[i], fp32Embeddings[j]);
+                    double int8Score = CosineSimilarityUtil.calculate(int8Embeddings[i], int8Embeddings[j]);
+                    maxScoreDelta = Math.max(maxScoreDelta, Math.abs(fp32Score - int8Score));
+                }
+            }
+
+            System.out.printf("FP32: %.2f ms/text, INT8: %.2f ms/text, speedup %.2fx%n",
+                    fp32Nanos / 1e6 / SENTENCES.size(), int8Nanos / 1e6 / SENTENCES.size(), (double) fp32Nanos / int8Nanos);
+            System.out.printf("Min cosine(FP32, INT8) of the same text: %.4f, max pairwise score delta: %.4f%n",
+                    minSelfSimilarity, maxScoreDelta);
+
+            assertTrue(minSelfSimilarity > 0.95, "INT8 embeddings should stay close to the FP32 embeddings");
+            assertTrue(maxScoreDelta < 0.05, "INT8 similarity scores should stay close to the FP32 scores");
+        }
+    }
+
+    // Embeds every sentence once to warm up, then measures a second, uncached pass.
+    private static long time(MiniLMEmbedder embedder, double[][] embeddings) {
+        for (String sentence : SENTENCES) {
+            embedder.embed("warm up " + sentence);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < SENTENCES.size(); i++) {
+            embeddings[i] = embedder.embed(SENTENCES.get(i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    void testPooledModelMatchesFp32() {
+        assumeTrue(isAvailable(ModelVariant.POOLED), "Pooled model not found, run scripts/export_pooled_model.py");
+        try (
+                MiniLMEmbedder fp32 = MiniLMEmbedder.getModel(ModelVariant.FP32);
+                MiniLMEmbedder pooled = MiniLMEmbedder.getModel(ModelVariant.POOLED)
+        ) {
+            List<double[]> fp32Embeddings = fp32.embedBatch(SENTENCES);
+            List<double[]> pooledEmbeddings = pooled.embedBatch(SENTENCES);
+            for (int i = 0; i < SENTENCES.size(); i++) {
+                assertEquals(1.0, CosineSimilarityUtil.calculate(fp32Embeddings.get(i), pooledEmbeddings.get(i)), 1e-4,
+                        "Pooling inside the graph should give the same embeddings");
+            }
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package io.github.franklinruiz;
 
+import ai.onnxruntime.OrtSession;
+import io.github.franklinruiz.encoder.EncoderConfig;
+import io.github.franklinruiz.encoder.ModelResources;
 import io.github.franklinruiz.encoder.OnnxBertEncoder;
+import io.github.franklinruiz.encoder.OverflowStrategy;
+import io.github.franklinruiz.encoder.TokenizerImplementation;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -24,25 +34,229 @@ class OnnxBertEncoderTest {
 
     @Test
     void testTokenCount() {
-        OnnxBertEncoder encoder = initializeEncoder();
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
 
-        assertDoesNotThrow(() -> {
-            int tokenCount = encoder.countTokens("Hello world");
-            assertTrue(tokenCount > 0, "Token count should be greater than 0");
-        });
+            assertDoesNotThrow(() -> {
+                int tokenCount = encoder.countTokens("Hello world");
+                assertTrue(tokenCount > 0, "Token count should be greater than 0");
+            });
+        }
     }
 
     @Test
     void testEmbed() {
-        OnnxBertEncoder encoder = initializeEncoder();
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
 
-        assertDoesNotThrow(() -> {
-            OnnxBertEncoder.EmbeddingAndTokenCount result = encoder.embed("Hello world");
+            assertDoesNotThrow(() -> {
+                OnnxBertEncoder.EmbeddingAndTokenCount result = encoder.embed("Hello world");
 
-            assertNotNull(result, "Result should not be null");
-            assertNotNull(result.embedding, "Embedding should not be null");
-            assertTrue(result.embedding.length > 0, "Embedding should have a valid length");
-            assertTrue(result.tokenCount > 0, "Token count should be greater than 0");
-        });
+                assertNotNull(result, "Result should not be null");
+                assertNotNull(result.embedding, "Embedding should not be null");
+                assertTrue(result.embedding.length > 0, "Embedding should have a valid length");
+                assertTrue(result.tokenCount > 0, "Token count should be greater than 0");
+            });
+        }
+    }
+
+    @Test
+    void testEmbedBatch() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            List<String> texts = List.of("Hello world", "A much longer sentence about the capital of France", "Hi");
+
+            assertDoesNotThrow(() -> {
+                List<OnnxBertEncoder.EmbeddingAndTokenCount> results = encoder.embedBatch(texts);
+                assertEquals(texts.size(), results.size(), "Batch should return one result per text");
+
+                for (int i = 0; i < texts.size(); i++) {
+                    OnnxBertEncoder.EmbeddingAndTokenCount single = encoder.embed(texts.get(i));
+                    assertEquals(single.tokenCount, results.get(i).tokenCount, "Token counts should match");
+                    assertArrayEquals(single.embedding, results.get(i).embedding, 1e-4f,
+                            "Batched embedding should match the single-text embedding");
+                }
+            });
+        }
+    }
+
+    @Test
+    void testEmbedFromPathAndMappedBuffer() throws Exception {
+        Path modelPath = ModelResources.extract("all-minilm-l6-v2.onnx");
+        Path tokenizerPath = ModelResources.extract("all-minilm-l6-v2-tokenizer.json");
+        float[] expected;
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            expected = encoder.embed("Hello world").embedding;
+        }
+
+        try (OnnxBertEncoder fromPath = new OnnxBertEncoder(modelPath, tokenizerPath,
+                OnnxBertEncoder.PoolingMode.MEAN, EncoderConfig.defaults())) {
+            assertArrayEquals(expected, fromPath.embed("Hello world").embedding, 1e-6f,
+                    "Loading from a path should give the same embedding");
+        }
+
+        try (
+                InputStream tokenizerStream = getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2-tokenizer.json");
+                OnnxBertEncoder fromBuffer = new OnnxBertEncoder(ModelResources.map(modelPath), tokenizerStream,
+                        OnnxBertEncoder.PoolingMode.MEAN, EncoderConfig.defaults())
+        ) {
+            assertArrayEquals(expected, fromBuffer.embed("Hello world").embedding, 1e-6f,
+                    "Loading from a mapped buffer should give the same embedding");
+        }
+    }
+
+    @Test
+    void testPersistOptimizedModel(@TempDir Path directory) throws Exception {
+        Path modelPath = ModelResources.extract("all-minilm-l6-v2.onnx");
+        Path tokenizerPath = ModelResources.extract("all-minilm-l6-v2-tokenizer.json");
+        EncoderConfig config = EncoderConfig.builder().optimizedModelDirectory(directory).build();
+
+        try (OnnxBertEncoder first = new OnnxBertEncoder(modelPath, tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN, config)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.filter(file -> file.toString().endsWith(".optimized.onnx")).count(),
+                        "The optimized graph should be persisted");
+            }
+
+            try (OnnxBertEncoder second = new OnnxBertEncoder(modelPath, tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN, config)) {
+                assertArrayEquals(first.embed("Hello world").embedding, second.embed("Hello world").embedding, 1e-5f,
+                        "The persisted graph should give the same embedding");
+            }
+        }
+
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> EncoderConfig.builder().sessionOptions(options).optimizedModelDirectory(directory).build(),
+                    "Caller options cannot load a pre-optimized graph without optimizing it again");
+        }
+    }
+
+    @Test
+    void testEmbedLongTextUsesSeveralWindows() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            String text = "The quick brown fox jumps over the lazy dog near the unbelievably quiet riverbank. ".repeat(60);
+
+            OnnxBertEncoder.EmbeddingAndTokenCount result = encoder.embed(text);
+
+            assertEquals(encoder.countTokens(text), result.tokenCount, "Long texts should not be truncated");
+            assertTrue(result.tokenCount > 1024, "Text should need several model windows");
+            double norm = 0.0;
+            for (float value : result.embedding) {
+                assertFalse(Float.isNaN(value), "Embedding should not contain NaN values");
+                norm += value * value;
+            }
+            assertEquals(1.0, norm, 1e-4, "Embedding should have unit norm");
+
+            List<OnnxBertEncoder.EmbeddingAndTokenCount> batch = encoder.embedBatch(List.of("Hello world", text));
+            assertEquals(result.tokenCount, batch.get(1).tokenCount, "Batched long texts should not be truncated");
+            assertArrayEquals(result.embedding, batch.get(1).embedding, 1e-6f,
+                    "Long texts in a batch should be embedded like individual ones");
+        }
+    }
+
+    @Test
+    void testClsPooling() throws Exception {
+        try (
+                InputStream modelStream = getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2.onnx");
+                InputStream tokenizerStream = getClass().getClassLoader().getResourceAsStream("all-minilm-l6-v2-tokenizer.json");
+                OnnxBertEncoder encoder = new OnnxBertEncoder(modelStream, tokenizerStream, OnnxBertEncoder.PoolingMode.CLS)
+        ) {
+            float[] single = encoder.embed("Hello world").embedding;
+            float[] batched = encoder.embedBatch(List.of("Hello world", "A longer sentence to force padding")).get(0).embedding;
+
+            assertEquals(384, single.length, "CLS embedding should have the hidden size");
+            assertArrayEquals(single, batched, 1e-4f, "CLS pooling should ignore padding");
+        }
+    }
+
+    @Test
+    void testWordPieceTokenizerMatchesHuggingFace() throws Exception {
+        Path modelPath = ModelResources.extract("all-minilm-l6-v2.onnx");
+        Path tokenizerPath = ModelResources.extract("all-minilm-l6-v2-tokenizer.json");
+        try (
+                OnnxBertEncoder huggingFace = new OnnxBertEncoder(modelPath, tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN,
+                        EncoderConfig.defaults());
+                OnnxBertEncoder wordPiece = new OnnxBertEncoder(modelPath, tokenizerPath, OnnxBertEncoder.PoolingMode.MEAN,
+                        EncoderConfig.builder().tokenizerImplementation(TokenizerImplementation.WORD_PIECE).build())
+        ) {
+            List<String> corpus = List.of(
+                    "Hello world", "HELLO, World!! How are you?",
+                    "naïve café résumé Ångström Ünïcödé",
+                    "北京欢迎你 and 東京 with compatibility ideographs 車 金",
+                    "emoji 😀👍🏽 and symbols $100 + 5% = <tag> ^_^ `code` ~tilde~ |pipe|",
+                    "«quotes» “smart” ‘single’ — dash … ellipsis",
+                    "tab\there\nnewline\r\n non\u00a0breaking\u2003space zero\u200bwidth soft\u00adhyphen",
+                    "control\u0007bell\u0000null \ufffd replacement",
+                    "[CLS] literal [SEP] tokens [MASK][PAD]x[UNK]y",
+                    "a".repeat(101), "b".repeat(100), "supercalifragilisticexpialidocious antidisestablishmentarianism",
+                    "ΣΊΣΥΦΟΣ ΟΔΟΣ İstanbul ǅ ß ﬁ",
+                    "ﾊﾝｶｸ カタカナ ひらがな 한국어 텍스트 مرحبا بالعالم Привет мир",
+                    "numbers 3.14159 1,000,000 2nd e-mail@example.com http://example.org/a?b=c#d ##sharp",
+                    "The quick brown fox jumps over the lazy dog. ".repeat(150));
+
+            for (String text : corpus) {
+                assertEquals(huggingFace.countTokens(text), wordPiece.countTokens(text), "Token counts should match for: " + text);
+                assertArrayEquals(huggingFace.embed(text).embedding, wordPiece.embed(text).embedding, 0f,
+                        "Identical token ids should give identical embeddings for: " + text);
+            }
+            assertEquals(huggingFace.countTokens(" "), wordPiece.countTokens(" "), "Blank texts should only have the special tokens");
+            assertArrayEquals(huggingFace.countTokensBatch(corpus), wordPiece.countTokensBatch(corpus),
+                    "Batched token counts should match");
+        }
+    }
+
+    @Test
+    void testEmbedInto() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            float[] destination = new float[encoder.getDimensions()];
+
+            assertEquals(384, encoder.getDimensions(), "The model should declare its embedding size");
+            for (String text : List.of("Hello world", "A much longer sentence about the capital of France", "Hi",
+                    "The quick brown fox jumps over the lazy dog. ".repeat(150))) {
+                OnnxBertEncoder.EmbeddingAndTokenCount expected = encoder.embed(text);
+                assertEquals(expected.tokenCount, encoder.embedInto(text, destination), "Token counts should match");
+                assertArrayEquals(expected.embedding, destination, 1e-6f, "Embedding in place should match embed for: " + text);
+            }
+            assertThrows(IllegalArgumentException.class, () -> encoder.embedInto("Hello world", new float[10]),
+                    "A destination of the wrong size should be rejected");
+        }
+    }
+
+    @Test
+    void testEmbedEmptyText() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            OnnxBertEncoder.EmbeddingAndTokenCount batched = encoder.embedBatch(List.of("")).get(0);
+            OnnxBertEncoder.EmbeddingAndTokenCount single = encoder.embed("");
+
+            assertEquals(2, single.tokenCount, "An empty text should only have its special tokens");
+            assertArrayEquals(batched.embedding, single.embedding, 1e-5f, "Empty texts should be embedded alike alone and in batches");
+        }
+    }
+
+    @Test
+    void testTruncatingOverflowStrategies() {
+        try (OnnxBertEncoder encoder = initializeEncoder()) {
+            String head = "The quick brown fox jumps over the lazy dog near the quiet riverbank. ".repeat(60);
+            String middle = "Completely unrelated filler about stock markets and interest rates. ".repeat(30_000);
+            String tail = "In conclusion, foxes and dogs can live together peacefully. ".repeat(60);
+
+            OnnxBertEncoder.EmbeddingAndTokenCount truncated = encoder.embed(head + middle, OverflowStrategy.TRUNCATE_HEAD);
+            assertEquals(512, truncated.tokenCount, "Truncation should keep a single full model window");
+            assertArrayEquals(encoder.embed(head, OverflowStrategy.TRUNCATE_HEAD).embedding, truncated.embedding, 1e-6f,
+                    "Only the beginning of the text should matter");
+
+            OnnxBertEncoder.EmbeddingAndTokenCount headTail = encoder.embed(head + middle + tail, OverflowStrategy.TRUNCATE_HEAD_TAIL);
+            assertEquals(512, headTail.tokenCount, "Truncation should keep a single full model window");
+            assertArrayEquals(encoder.embed(head + tail, OverflowStrategy.TRUNCATE_HEAD_TAIL).embedding, headTail.embedding, 1e-6f,
+                    "Only the beginning and the end of the text should matter");
+
+            assertArrayEquals(encoder.embed("Hello world").embedding,
+                    encoder.embed("Hello world", OverflowStrategy.TRUNCATE_HEAD_TAIL).embedding, 0f,
+                    "Texts within a model window should not be affected");
+            String spaced = ("word" + " ".repeat(50)).repeat(2_000);
+            assertEquals(512, encoder.embed(spaced, OverflowStrategy.TRUNCATE_HEAD).tokenCount,
+                    "Whitespace runs should not keep texts from filling a model window");
+            assertEquals(512, encoder.embed(spaced, OverflowStrategy.TRUNCATE_HEAD_TAIL).tokenCount,
+                    "Whitespace runs should not keep texts from filling a model window");
+            List<OnnxBertEncoder.EmbeddingAndTokenCount> batch = encoder.embedBatch(List.of("Hello world", head + middle),
+                    OverflowStrategy.TRUNCATE_HEAD);
+            assertArrayEquals(truncated.embedding, batch.get(1).embedding, 1e-4f, "Batches should be truncated alike");
+        }
     }
 }
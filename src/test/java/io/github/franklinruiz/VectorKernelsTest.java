@@ -0,0 +1,78 @@
+package io.github.franklinruiz;
+
+import io.github.franklinruiz.utils.VectorKernels;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VectorKernelsTest {
+
+    // Lengths covering empty vectors, vectors shorter than one SIMD register and vectors with a scalar tail.
+    private static final int[] LENGTHS = {0, 1, 3, 7, 16, 31, 384, 1001};
+
+    @Test
+    void testKernelsMatchScalarLoops() {
+        Random random = new Random(42);
+
+        for (int length : LENGTHS) {
+            double[] a = random.doubles(length, -1, 1).toArray();
+            double[] b = random.doubles(length, -1, 1).toArray();
+            float[] fa = toFloats(a);
+            float[] fb = toFloats(b);
+
+            double dot = 0.0;
+            for (int i = 0; i < length; i++) {
+                dot += a[i] * b[i];
+            }
+            assertEquals(dot, VectorKernels.dot(a, b), 1e-9, "Double dot product should match for length " + length);
+            assertEquals(dot, VectorKernels.dot(fa, fb), 1e-4, "Float dot product should match for length " + length);
+            assertEquals(Math.sqrt(VectorKernels.dot(a, a)), VectorKernels.norm(a), 1e-12, "Norm should match for length " + length);
+
+            double[] y = b.clone();
+            float[] fy = fb.clone();
+            VectorKernels.axpy(0.5, a, y);
+            VectorKernels.axpy(0.5F, fa, fy);
+            VectorKernels.scale(2.0, y);
+            VectorKernels.scale(2.0F, fy);
+            for (int i = 0; i < length; i++) {
+                assertEquals((b[i] + 0.5 * a[i]) * 2.0, y[i], 1e-12, "Double axpy and scale should match");
+                assertEquals((b[i] + 0.5 * a[i]) * 2.0, fy[i], 1e-5, "Float axpy and scale should match");
+            }
+        }
+    }
+
+    @Test
+    void testAcceleratedWhenVectorApiIsUsable() throws Exception {
+        boolean expected = false;
+        if (!Boolean.getBoolean(VectorKernels.SCALAR_PROPERTY) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            // Read reflectively, so that the tests compile without the incubator module
+            Object species = Class.forName("jdk.incubator.vector.DoubleVector").getField("SPECIES_PREFERRED").get(null);
+            expected = (int) Class.forName("jdk.incubator.vector.VectorSpecies").getMethod("length").invoke(species) > 1;
+        }
+        assertEquals(expected, VectorKernels.isAccelerated(),
+                "The Vector API kernels should be used exactly when the module is present and the CPU has SIMD registers");
+    }
+
+    @Test
+    void testMeanRows() {
+        double[] matrix = {9, 9, 9, 1, 2, 3, 3, 4, 5, 5, 6, 7};
+        assertArrayEquals(new double[]{3, 4, 5}, VectorKernels.meanRows(matrix, 3, 3, 3), 1e-12,
+                "Mean should be computed over the selected rows");
+        assertArrayEquals(new float[]{2, 3, 4}, VectorKernels.meanRows(toFloats(matrix), 3, 2, 3), 1e-6f,
+                "Float mean should be computed over the selected rows");
+        assertThrows(IllegalArgumentException.class, () -> VectorKernels.meanRows(matrix, 3, 4, 3),
+                "Rows beyond the matrix should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> VectorKernels.dot(new float[2], new float[3]),
+                "Vectors of different lengths should be rejected");
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+}